@@ -16,6 +16,7 @@ import rx.Subscription;
 public class Bo extends AbstractVerticle {
 
     private static final Logger LOG = LoggerFactory.getLogger(Bo.class);
+    private static final long LATENCY_LOG_INTERVAL = 10000;
 
     private Car car = new Car(new Engine(new EngineMap()), new Steering(new SteeringMap()));
     private SpeedHandler speedHandler = new SpeedHandler(car);
@@ -54,6 +55,11 @@ public class Bo extends AbstractVerticle {
                     }
         });
 
+        vertx.setPeriodic(LATENCY_LOG_INTERVAL, id -> {
+            LOG.info("Latency " + steeringHandler.getNavigateToActuate());
+            LOG.info("Latency " + steeringHandler.getCaptureToActuate());
+        });
+
         LOG.info("Bo started");
     }
 }
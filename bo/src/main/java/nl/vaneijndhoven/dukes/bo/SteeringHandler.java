@@ -5,6 +5,9 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import nl.vaneijndhoven.dukes.car.SteeringMap;
 import nl.vaneijndhoven.dukes.car.Car;
+import nl.vaneijndhoven.dukes.hazardcounty.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
 
 class SteeringHandler {
 
@@ -13,6 +16,9 @@ class SteeringHandler {
     private static int currentWheelPosition;
     private Car car;
 
+    private final LatencyHistogram navigateToActuate = new LatencyHistogram("navigate->actuate");
+    private final LatencyHistogram captureToActuate = new LatencyHistogram("capture->actuate");
+
     SteeringHandler(Car car) {
         this.car = car;
         this.currentWheelPosition = car.getSteering().getSteeringMap().center();
@@ -47,6 +53,29 @@ class SteeringHandler {
         LOG.debug("about to set current wheel pos to " + currentWheelPosition);
 //        Command.setWheelPosition(currentWheelPosition);
         car.turn(currentWheelPosition);
+        recordLatency(messageBody.getJsonObject("frame"));
+    }
+
+    LatencyHistogram getNavigateToActuate() {
+        return navigateToActuate;
+    }
+
+    LatencyHistogram getCaptureToActuate() {
+        return captureToActuate;
+    }
+
+    private void recordLatency(JsonObject frame) {
+        if (frame == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (frame.containsKey("navigateTime")) {
+            navigateToActuate.record(now - frame.getLong("navigateTime"), TimeUnit.MILLISECONDS);
+        }
+        if (frame.containsKey("captureTime")) {
+            captureToActuate.record(now - frame.getLong("captureTime"), TimeUnit.MILLISECONDS);
+        }
     }
 
     void handleServo(JsonObject messageBody) {
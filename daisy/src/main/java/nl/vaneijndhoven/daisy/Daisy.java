@@ -7,17 +7,31 @@ import io.vertx.rxjava.core.AbstractVerticle;
 import io.vertx.rxjava.core.eventbus.Message;
 import nl.vaneijndhoven.dukes.hazardcounty.Characters;
 import nl.vaneijndhoven.dukes.hazardcounty.Events;
-import nl.vaneijndhoven.opencv.edgedectection.CannyEdgeDetector;
-import nl.vaneijndhoven.opencv.linedetection.ProbabilisticHoughLinesLineDetector;
+import nl.vaneijndhoven.dukes.hazardcounty.LatencyHistogram;
+import nl.vaneijndhoven.objects.StartLight;
+import nl.vaneijndhoven.opencv.lanedetection.ImageLaneDetection;
+import nl.vaneijndhoven.opencv.perspective.BirdsEyeView;
+import nl.vaneijndhoven.opencv.startlightdetection.DefaultStartLightDetector;
+import nl.vaneijndhoven.opencv.startlightdetection.StartLightLocator;
 import nl.vaneijndhoven.opencv.tools.ImageCollector;
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import nl.vaneijndhoven.opencv.tools.StageTimings;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
+import rx.schedulers.Schedulers;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 public class Daisy extends AbstractVerticle {
 
@@ -25,16 +39,28 @@ public class Daisy extends AbstractVerticle {
 
     private final static long LANE_DETECTION_INTERVAL = 200;
     private final static long START_LIGHT_DETECTION_INTERVAL = 50;
+    private final static long LANE_DETECTION_MIN_INTERVAL = 20;
+    private final static long START_LIGHT_DETECTION_MIN_INTERVAL = 10;
+    private final static long LATENCY_LOG_INTERVAL = 10000;
+    private final static long TIMING_PUBLISH_INTERVAL = 5000;
 
     private final static String START_LANE_DETECTION = "START_LANE_DETECTION";
     private final static String START_STARTLIGHT_DETECTION = "START_STARTLIGHT_DETECTION";
+    private final static String START_STARTLIGHT_WATCH = "START_STARTLIGHT_WATCH";
     private final static String CANNY_CONFIG_UPDATE = "CANNY_CONFIG_UPDATE";
     private final static String HOUGH_CONFIG_UPDATE = "HOUGH_CONFIG_UPDATE";
+    private final static String TIMINGS = "TIMINGS";
 
 
-    public static Mat MAT = null;
-    public static Mat BIRDS_EYE = null;
-    public static byte[] CANNY_IMG = null;
+    private final FrameHub frameHub = new FrameHub();
+    private FrameStore frameStore;
+    private final MatPool debugPool = new MatPool();
+    private final BirdsEyeView birdsEyeView = ImageLaneDetection.birdsEyeView();
+    private final AtomicReference<DetectorConfig> defaults = new AtomicReference<>(DetectorConfig.DEFAULT);
+    private final Set<AtomicReference<DetectorConfig>> streamConfigs = ConcurrentHashMap.newKeySet();
+    private final LatencyHistogram captureToDetect = new LatencyHistogram("capture->detect");
+    private final StageTimings timings = new StageTimings();
+    private volatile Map<String, Object> lastTimings = new HashMap<>();
 
     public Daisy() {
 
@@ -44,20 +70,38 @@ public class Daisy extends AbstractVerticle {
     public void start() throws Exception {
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         LOG.info("Starting Daisy (image processing)");
+        frameStore = FrameStore.shared(getVertx());
+
+        frameStore.derive(FrameStore.BIRDS_EYE, FrameStore.CAMERA, this::birdsEye);
         vertx.eventBus().consumer(Events.STREAMADDED.name(), this::streamAdded);
 
         vertx.eventBus().consumer(Characters.DAISY.getCallsign() + ":" + START_LANE_DETECTION, this::startLD);
 //        vertx.eventBus().consumer(Characters.DAISY.getCallsign() + ":" + START_STARTLIGHT_DETECTION, this::startSLD);
+        vertx.eventBus().consumer(Characters.DAISY.getCallsign() + ":" + START_STARTLIGHT_WATCH, this::startSLW);
 
         vertx.eventBus().consumer(Characters.DAISY.getCallsign() + ":" + CANNY_CONFIG_UPDATE, this::cannyConfig);
         vertx.eventBus().consumer(Characters.DAISY.getCallsign() + ":" + HOUGH_CONFIG_UPDATE, this::houghConfig);
 
+        vertx.eventBus().consumer(Characters.DAISY.getCallsign() + ":" + TIMINGS, this::timings);
+
+        vertx.setPeriodic(LATENCY_LOG_INTERVAL, id -> LOG.info("Latency " + captureToDetect));
+        vertx.setPeriodic(TIMING_PUBLISH_INTERVAL, id -> publishTimings());
+
         LOG.info("Daisy started");
     }
 
+    @Override
+    public void stop() throws Exception {
+        birdsEyeView.release();
+        LOG.info("Daisy stopped");
+    }
+
     private void streamAdded(Message<JsonObject> message) {
         vertx.eventBus().send(Characters.DAISY.getCallsign() + ":" + START_LANE_DETECTION, message.body());
         vertx.eventBus().send(Characters.DAISY.getCallsign() + ":" + START_STARTLIGHT_DETECTION, message.body());
+        if (StreamOptions.of(message.body().getJsonObject("config")).isStartLightWatch()) {
+            vertx.eventBus().send(Characters.DAISY.getCallsign() + ":" + START_STARTLIGHT_WATCH, message.body());
+        }
     }
 
     private void startLD(Message<JsonObject> message) {
@@ -79,78 +123,66 @@ public class Daisy extends AbstractVerticle {
                         () -> LOG.info("Start light image processing ended"));
     }
 
+    private void startSLW(Message<JsonObject> message) {
+        startStartLightWatch(message)
+                .subscribe(
+                        light -> vertx.eventBus().publish(Events.STARTLIGHTDETECTION.name(), light),
+                        error -> LOG.error("Error during start light watch:", error),
+                        () -> LOG.info("Start light watch ended"));
+    }
+
     private void cannyConfig(Message<JsonObject> message) {
-        vertx.sharedData().getLocalMap(Characters.DAISY.name()).put("canny", message.body());
+        JsonObject canny = message.body();
+        updateConfig(config -> config.withCanny(canny));
     }
 
     private void houghConfig(Message<JsonObject> message) {
-        vertx.sharedData().getLocalMap(Characters.DAISY.name()).put("hough", message.body());
+        JsonObject hough = message.body();
+        updateConfig(config -> config.withHough(hough));
     }
 
-    private long getInterval() {
-        Long interval = (Long)vertx.sharedData().getLocalMap(Characters.DAISY.name()).get("interval");
-        return interval != null ? interval : LANE_DETECTION_INTERVAL;
+    /**
+     * Config updates replace the snapshot of every running stream and the defaults for streams started later.
+     */
+    private void updateConfig(UnaryOperator<DetectorConfig> update) {
+        defaults.updateAndGet(update);
+        streamConfigs.forEach(config -> config.updateAndGet(update));
     }
 
-    private CannyEdgeDetector.Config createCanny() {
-        CannyEdgeDetector.Config canny = new CannyEdgeDetector.Config();
-        JsonObject cannyConfig = (JsonObject)vertx.sharedData().getLocalMap(Characters.DAISY.name()).get("canny");
-
-        if (cannyConfig != null) {
-            canny.setThreshold1(cannyConfig.getDouble("threshold1"));
-            canny.setThreshold2(cannyConfig.getDouble("threshold2"));
-        }
-
-        return canny;
+    /**
+     * Publishes the stage timings of the past window and starts a new window.
+     */
+    private void publishTimings() {
+        Map<String, Object> window = timings.roll();
+        lastTimings = window;
+        vertx.eventBus().publish(Events.PIPELINETIMING.name(), new JsonObject(window));
+        LOG.debug("Stage timings " + window);
     }
 
-    private ProbabilisticHoughLinesLineDetector.Config createHoughLines() {
-        ProbabilisticHoughLinesLineDetector.Config hough = new ProbabilisticHoughLinesLineDetector.Config();
-        JsonObject houghConfig = (JsonObject)vertx.sharedData().getLocalMap(Characters.DAISY.name()).get("hough");
-
-        if (houghConfig != null) {
-            hough = new ProbabilisticHoughLinesLineDetector.Config();
-            hough.setRho(houghConfig.getDouble("rho"));
-            hough.setTheta(houghConfig.getDouble("theta"));
-            hough.setThreshold(houghConfig.getInteger("threshold"));
-            hough.setMaxLineGap(houghConfig.getDouble("maxLineGap"));
-            hough.setMinLineLength(houghConfig.getDouble("minLineLength"));
-        }
+    /**
+     * Replies with the last published window and the window in progress.
+     */
+    private void timings(Message<Object> message) {
+        message.reply(new JsonObject()
+                .put("last", new JsonObject(lastTimings))
+                .put("current", new JsonObject(timings.snapshot())));
+    }
 
-        return hough;
+    private long getInterval() {
+        Long interval = (Long)vertx.sharedData().getLocalMap(Characters.DAISY.name()).get("interval");
+        return interval != null ? interval : LANE_DETECTION_INTERVAL;
     }
 
     private Observable<String> startLaneDetection(Message<JsonObject> msg) {
         JsonObject jo = msg.body();
         JsonObject config = jo.getJsonObject("config");
 
-        CannyEdgeDetector.Config canny = new CannyEdgeDetector.Config();
-        ProbabilisticHoughLinesLineDetector.Config hough = new ProbabilisticHoughLinesLineDetector.Config();
-        long interval = LANE_DETECTION_INTERVAL;
-        if (config != null) {
-            JsonObject cannyCfg = config.getJsonObject("canny");
-            if (cannyCfg != null) {
-                canny = new CannyEdgeDetector.Config();
-                canny.setThreshold1(cannyCfg.getDouble("threshold1"));
-                canny.setThreshold2(cannyCfg.getDouble("threshold2"));
-            }
-
-            JsonObject houghCfg = config.getJsonObject("hough");
-            if (houghCfg != null) {
-                hough = new ProbabilisticHoughLinesLineDetector.Config();
-                hough.setRho(houghCfg.getDouble("rho"));
-                hough.setTheta(houghCfg.getDouble("theta"));
-                hough.setThreshold(houghCfg.getInteger("threshold"));
-                hough.setMaxLineGap(houghCfg.getDouble("maxLineGap"));
-                hough.setMinLineLength(houghCfg.getDouble("minLineLength"));
-            }
+        // the stream's own canny and hough settings override the current defaults
+        AtomicReference<DetectorConfig> streamConfig = new AtomicReference<>(defaults.get().with(config));
+        StreamOptions options = StreamOptions.of(config);
 
-            if (config.containsKey("interval")) {
-                interval = config.getLong("interval");
-            }
-        }
-
-        return startLaneDetection(jo.getString("source"), interval).map(map -> {
+        DetectionRateGovernor governor = options.governor(LANE_DETECTION_MIN_INTERVAL, LANE_DETECTION_INTERVAL);
+        return startLaneDetection(jo.getString("source"), streamConfig, options, governor).map(map -> {
             try {
                 return new ObjectMapper().writeValueAsString(map);
             } catch (JsonProcessingException e) {
@@ -159,41 +191,135 @@ public class Daisy extends AbstractVerticle {
         });
     }
 
-    private Observable<Object> startLaneDetection(String source, long interval) {
-        ImageFetcher fetcher = new ImageFetcher(source);
+    private Observable<Object> startLaneDetection(String source, AtomicReference<DetectorConfig> streamConfig, StreamOptions options, DetectionRateGovernor governor) {
+        ImageFetcher fetcher = frameHub.fetcher(source, options);
+
+        LOG.info("Started image processing for source: " + source + " (" + effective(fetcher) + ", " + governor + ", requested " + options + ")");
+        return Observable.using(MatPool::new, pool -> {
+            // one engine per pipeline, it only rebuilds its detectors when a config update replaced the snapshot
+            streamConfigs.add(streamConfig);
+            DetectorConfig initial = streamConfig.get();
+            LaneDetector laneDetector = new LaneDetector(initial.getCanny(), initial.getHough(), null, pool, options.getLaneResolution());
+            laneDetector.setConfig(initial);
+            laneDetector.setPreprocessor(options.getPreprocessor());
+            laneDetector.setSplitFields(options.isSplitFields());
+            laneDetector.setTracking(options.isTracking());
+            laneDetector.setSlidingWindows(options.isSlidingWindows());
+            laneDetector.setAutoTune(options.isAutoTune());
+            laneDetector.setTimings(timings);
+            return frames(fetcher, governor, options.isLossless())
+                    .map(frame -> {
+                        long start = System.nanoTime();
+                        try (Frame captured = frame) {
+                            if (captured.tryRetain()) {
+                                frameStore.publish(source, FrameStore.CAMERA, captured);
+                            }
+
+                            // the captured frame is shared with other detectors and only read, the lane overlay is
+                            // drawn on a copy while a reader looks at it
+                            Frame overlay = frameStore.wanted(source, FrameStore.LANE) ? captured.derive(copyOf(captured.get(), pool)) : null;
+                            Map<String, Object> detection;
+                            try {
+                                laneDetector.setConfig(streamConfig.get());
+                                laneDetector.setCollector(new FrameStoreCollector(frameStore, pool, source, captured));
+                                laneDetector.setDrawing(overlay != null);
+                                detection = laneDetector.detect(overlay != null ? overlay.get() : captured.get());
+                            } catch (RuntimeException e) {
+                                if (overlay != null) {
+                                    overlay.close();
+                                }
+                                throw e;
+                            }
+                            if (overlay != null) {
+                                frameStore.publish(source, FrameStore.LANE, overlay);
+                            }
+                            captureToDetect.record(System.nanoTime() - captured.getCaptureNanos(), TimeUnit.NANOSECONDS);
+                            detection.put("frame", timing(captured));
+                            return detection;
+                        } finally {
+                            governor.completed(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .doOnUnsubscribe(() -> LOG.info("Lane detection rate " + governor));
+        }, pool -> {
+            streamConfigs.remove(streamConfig);
+            pool.close();
+        });
+    }
 
-        LOG.info("Started image processing for source: " + source);
-        return fetcher.toObservable()
-                .sample(interval, TimeUnit.MILLISECONDS)
-                .doOnNext(frame -> Daisy.MAT = frame)
-                .map(frame -> {
-                    ImageCollector collector = new ImageCollector();
-                    Map<String, Object> detection = new LaneDetector(createCanny(), createHoughLines(), collector).detect(frame);
-                    Daisy.CANNY_IMG = collector.edges();
-                    // detection.put("mat", frame.getNativeObjAddr());
-                    return detection;
-                });
+    private static DefaultStartLightDetector startLightDetector(DefaultStartLightDetector.Config detectorConfig, StreamOptions options) {
+        DefaultStartLightDetector detector = new DefaultStartLightDetector(detectorConfig).withDownscale(options.getStartLightResolution());
+        if (options.isStartLightRegionAuto()) {
+            detector.withLocator(new StartLightLocator());
+        }
+        return detector;
+    }
+
+    private static Observable<Frame> frames(ImageFetcher fetcher, DetectionRateGovernor governor, boolean lossless) {
+        if (lossless) {
+            // every frame exactly once and in order, processed on the pulling thread; the governor only measures
+            return fetcher.toObservable().doOnNext(frame -> governor.tryStart());
+        }
+
+        // processed on the timer thread that pulled the frame, no queue in between that could drop frames without
+        // closing them on unsubscribe; the next tick is only scheduled when the frame is done, like the governor's
+        // single slot in flight
+        return fetcher.toObservable(governor);
+    }
+
+    /**
+     * @return the capture mode of the shared fetcher, which is the one of the first stream on its source.
+     */
+    private static String effective(ImageFetcher fetcher) {
+        return "capture " + fetcher.getMode().name().toLowerCase() + " in effect";
+    }
+
+    private static Map<String, Object> timing(Frame frame) {
+        Map<String, Object> timing = new HashMap<>();
+        timing.put("sequence", frame.getSequence());
+        timing.put("captureTime", frame.getCaptureTime());
+        timing.put("detectTime", System.currentTimeMillis());
+        return timing;
+    }
+
+    /**
+     * Bird's-eye view of a camera frame, only computed when a debug reader asks for it.
+     */
+    private Frame birdsEye(Frame camera) {
+        Mat image = camera.get();
+        MatPool.Lease warped = debugPool.lease(birdsEyeView.size(image.size()), image.type());
+        long t = timings.start();
+        birdsEyeView.transform(image, warped.get());
+        timings.lap(StageTimings.Stage.WARP, t);
+        return camera.derive(warped);
+    }
+
+    private static MatPool.Lease copyOf(Mat frame, MatPool pool) {
+        MatPool.Lease copy = pool.lease(frame.rows(), frame.cols(), frame.type());
+        frame.copyTo(copy.get());
+        return copy;
     }
 
     private Observable startStartLightDetection(Message<JsonObject> msg) {
         JsonObject jo = msg.body();
-        JsonObject config = jo.getJsonObject("config");
+        StreamOptions options = StreamOptions.of(jo.getJsonObject("config"));
 
-        long interval = START_LIGHT_DETECTION_INTERVAL;
-        if (config != null) {
-            if (config.containsKey("interval")) {
-                interval = config.getLong("interval");
-            }
-        }
+        DetectionRateGovernor governor = options.governor(START_LIGHT_DETECTION_MIN_INTERVAL, START_LIGHT_DETECTION_INTERVAL);
 
-        StartLightDetector.Config config1 = new StartLightDetector.Config();
-        StartLightDetector startLightDetector = new StartLightDetector(config1);
+        DefaultStartLightDetector.Config config1 = new DefaultStartLightDetector.Config();
+        DefaultStartLightDetector startLightDetector = startLightDetector(config1, options);
 
-        ImageFetcher fetcher = new ImageFetcher(jo.getString("source"));
+        ImageFetcher fetcher = frameHub.fetcher(jo.getString("source"), options);
 
-        return fetcher.toObservable()
-                .sample(interval, TimeUnit.MILLISECONDS)
-                .map(startLightDetector::detect)
+        return frames(fetcher, governor, options.isLossless())
+                .map(frame -> {
+                    long start = System.nanoTime();
+                    try (Frame captured = frame) {
+                        return startLightDetector.detect(captured.get());
+                    } finally {
+                        governor.completed(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                })
                 .map(map -> {
                     try {
                         return new ObjectMapper().writeValueAsString(map);
@@ -203,4 +329,51 @@ public class Daisy extends AbstractVerticle {
                 });
     }
 
+    /**
+     * Start light detection on every captured frame instead of a sample every interval, on a dedicated thread at
+     * maximum priority. Only changes of the start light state are emitted, with the sequence and capture time of the
+     * frame that showed the change, so the reaction at the start is not delayed by a sampling interval.
+     * <p>
+     * This is costly: every frame is decoded in full (in {@link ImageFetcher.CaptureMode#GRAB} mode the watch asks for every
+     * grabbed frame, so lane detection on the same source no longer skips decoding), only the detector then reads
+     * the start light region in place. The watch therefore ends with the first state that reports the start.
+     */
+    private Observable<String> startStartLightWatch(Message<JsonObject> msg) {
+        JsonObject jo = msg.body();
+        StreamOptions options = StreamOptions.of(jo.getJsonObject("config"));
+
+        DefaultStartLightDetector startLightDetector = startLightDetector(new DefaultStartLightDetector.Config(), options);
+        ImageFetcher fetcher = frameHub.fetcher(jo.getString("source"), options);
+
+        LOG.info("Started start light watch for source: " + jo.getString("source") + " (" + effective(fetcher) + ", requested " + options + ")");
+        return Observable.using(
+                () -> Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "daisy-startlight-" + jo.getString("source"));
+                    thread.setPriority(Thread.MAX_PRIORITY);
+                    thread.setDaemon(true);
+                    return thread;
+                }),
+                executor -> fetcher.toObservable(Schedulers.from(executor))
+                        .map(frame -> {
+                            try (Frame captured = frame) {
+                                StartLight startLight = startLightDetector.detect(captured.get());
+                                Map<String, Object> detection = new HashMap<>();
+                                detection.put("startLight", startLight.name());
+                                detection.put("started", startLight.started());
+                                detection.put("frame", timing(captured));
+                                return detection;
+                            }
+                        })
+                        .distinctUntilChanged(detection -> detection.get("startLight"))
+                        .takeUntil(detection -> (Boolean) detection.get("started")),
+                ExecutorService::shutdown)
+                .map(detection -> {
+                    try {
+                        return new ObjectMapper().writeValueAsString(detection);
+                    } catch (JsonProcessingException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
 }
@@ -0,0 +1,114 @@
+package nl.vaneijndhoven.daisy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapts the detection sampling interval to the measured processing time, between a floor (fastest rate) and a
+ * ceiling (slowest rate). The interval creeps down (additive decrease) towards the processing time plus some
+ * headroom as long as frames are processed in time, and backs off (multiplicative increase) as soon as a tick
+ * finds the pipeline still busy with earlier frames.
+ */
+public class DetectionRateGovernor {
+
+    private static final double HEADROOM = 1.25;
+    private static final double BACKOFF = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final double decreaseStep;
+    private final int maxInFlight;
+
+    private volatile double interval;
+    private double processingMillis = -1;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param minInterval floor, in milliseconds.
+     * @param maxInterval ceiling and starting interval, in milliseconds.
+     */
+    public DetectionRateGovernor(long minInterval, long maxInterval) {
+        this(minInterval, maxInterval, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public DetectionRateGovernor(long minInterval, long maxInterval, int maxInFlight) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Invalid interval bounds: " + minInterval + " - " + maxInterval);
+        }
+
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.maxInFlight = maxInFlight;
+        this.decreaseStep = Math.max(1, (maxInterval - minInterval) / 20d);
+        this.interval = maxInterval;
+    }
+
+    /**
+     * @return interval until the next sample, in milliseconds.
+     */
+    public long nextInterval() {
+        return Math.round(interval);
+    }
+
+    /**
+     * Claims a slot for a new frame. When the pipeline is still busy the tick is skipped and the interval backs off.
+     */
+    public boolean tryStart() {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            skipped.incrementAndGet();
+            backOff();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a claimed slot without a frame having been processed (no frame was available).
+     */
+    public void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    public void completed(long processingTime, TimeUnit unit) {
+        inFlight.decrementAndGet();
+        processed.incrementAndGet();
+        adapt(unit.toNanos(processingTime) / 1_000_000d);
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("interval: %dms (%d - %d), processing: %.1fms, processed: %d, skipped: %d",
+                nextInterval(), minInterval, maxInterval, processingMillis, processed.get(), skipped.get());
+    }
+
+    private synchronized void backOff() {
+        interval = Math.min(maxInterval, interval * BACKOFF);
+    }
+
+    private synchronized void adapt(double millis) {
+        processingMillis = processingMillis < 0 ? millis : processingMillis + SMOOTHING * (millis - processingMillis);
+
+        double target = Math.min(maxInterval, Math.max(minInterval, processingMillis * HEADROOM));
+        if (interval > target) {
+            interval = Math.max(target, interval - decreaseStep);
+        } else {
+            interval = target;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package nl.vaneijndhoven.daisy;
+
+import io.vertx.core.json.JsonObject;
+import nl.vaneijndhoven.opencv.edgedectection.CannyEdgeDetector;
+import nl.vaneijndhoven.opencv.linedetection.ProbabilisticHoughLinesLineDetector;
+
+/**
+ * Versioned snapshot of the lane detector parameters. A snapshot is never changed once created: an update creates a
+ * new snapshot with a higher version, which pipelines pick up between frames by swapping a reference, so a frame
+ * in progress keeps the parameters it started with and detectors are only rebuilt when the version changed.
+ */
+public final class DetectorConfig {
+
+    public static final DetectorConfig DEFAULT = new DetectorConfig(0, new CannyEdgeDetector.Config(), new ProbabilisticHoughLinesLineDetector.Config());
+
+    private final long version;
+    private final CannyEdgeDetector.Config canny;
+    private final ProbabilisticHoughLinesLineDetector.Config hough;
+
+    private DetectorConfig(long version, CannyEdgeDetector.Config canny, ProbabilisticHoughLinesLineDetector.Config hough) {
+        this.version = version;
+        this.canny = canny;
+        this.hough = hough;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the Canny parameters, must not be modified.
+     */
+    public CannyEdgeDetector.Config getCanny() {
+        return canny;
+    }
+
+    /**
+     * @return the Hough parameters, must not be modified.
+     */
+    public ProbabilisticHoughLinesLineDetector.Config getHough() {
+        return hough;
+    }
+
+    /**
+     * @param json {"threshold1": .., "threshold2": ..}, or null to keep the current parameters. Missing keys keep
+     * their current value.
+     */
+    public DetectorConfig withCanny(JsonObject json) {
+        if (json == null) {
+            return this;
+        }
+
+        CannyEdgeDetector.Config canny = new CannyEdgeDetector.Config();
+        canny.setThreshold1(json.getDouble("threshold1", this.canny.getThreshold1()));
+        canny.setThreshold2(json.getDouble("threshold2", this.canny.getThreshold2()));
+        return new DetectorConfig(version + 1, canny, hough);
+    }
+
+    /**
+     * @param json {"rho": .., "theta": .., "threshold": .., "minLineLength": .., "maxLineGap": ..}, or null to keep
+     * the current parameters. Missing keys keep their current value.
+     */
+    public DetectorConfig withHough(JsonObject json) {
+        if (json == null) {
+            return this;
+        }
+
+        ProbabilisticHoughLinesLineDetector.Config hough = new ProbabilisticHoughLinesLineDetector.Config();
+        hough.setRho(json.getDouble("rho", this.hough.getRho()));
+        hough.setTheta(json.getDouble("theta", this.hough.getTheta()));
+        hough.setThreshold(json.getInteger("threshold", this.hough.getThreshold()));
+        hough.setMaxLineGap(json.getDouble("maxLineGap", this.hough.getMaxLineGap()));
+        hough.setMinLineLength(json.getDouble("minLineLength", this.hough.getMinLineLength()));
+        return new DetectorConfig(version + 1, canny, hough);
+    }
+
+    /**
+     * @param json stream config with optional "canny" and "hough" objects, or null.
+     */
+    public DetectorConfig with(JsonObject json) {
+        return json == null ? this : withCanny(json.getJsonObject("canny")).withHough(json.getJsonObject("hough"));
+    }
+
+    @Override
+    public String toString() {
+        return "config v" + version;
+    }
+}
@@ -0,0 +1,89 @@
+package nl.vaneijndhoven.daisy;
+
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Captured image with its sequence number and capture time. The capture time is kept both monotonic (for
+ * latencies within Daisy) and as wall clock time (for latencies measured in other verticles, possibly on the car).
+ *
+ * A frame can be shared by several detectors and is reference counted: it starts with one reference, every
+ * {@link #tryRetain()} adds one and every {@link #close()} releases one. The buffer returns to the pool when the
+ * last reference is released. Shared frames must be treated as read-only. A frame without a lease carries no image,
+ * only its sequence number and capture time.
+ */
+public class Frame implements AutoCloseable {
+
+    private final MatPool.Lease lease;
+    private final long sequence;
+    private final long captureNanos;
+    private final long captureTime;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicInteger acquisitions = new AtomicInteger();
+
+    public Frame(MatPool.Lease lease, long sequence, long captureNanos, long captureTime) {
+        this.lease = lease;
+        this.sequence = sequence;
+        this.captureNanos = captureNanos;
+        this.captureTime = captureTime;
+    }
+
+    /**
+     * @return frame for an image derived from this one (e.g. an overlay or edge image), with the same sequence
+     * number and capture time.
+     */
+    public Frame derive(MatPool.Lease image) {
+        return new Frame(image, sequence, captureNanos, captureTime);
+    }
+
+    public Mat get() {
+        return lease.get();
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * @return capture time in milliseconds since the epoch.
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * @return false when the frame was already released, it can no longer be used.
+     */
+    public boolean tryRetain() {
+        int current;
+        do {
+            current = references.get();
+            if (current == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(current, current + 1));
+
+        return true;
+    }
+
+    int acquired() {
+        return acquisitions.incrementAndGet();
+    }
+
+    int getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0 && lease != null) {
+            lease.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package nl.vaneijndhoven.daisy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One {@link ImageFetcher} per source, so all detectors on the same camera share a single capture (and decode)
+ * and see the same frames. The capture itself is reference counted by the fetcher: it runs while at least one
+ * detector is subscribed.
+ */
+public class FrameHub {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FrameHub.class);
+
+    private final ConcurrentMap<String, Shared> fetchers = new ConcurrentHashMap<>();
+
+    /**
+     * @return the fetcher for the given source. The capture mode and frame source of the options are only used when
+     * the source is not known yet, a stream asking for a different one gets the existing capture and a warning.
+     * Check {@link ImageFetcher#getMode()} for the mode in effect.
+     */
+    public ImageFetcher fetcher(String source, StreamOptions options) {
+        Shared shared = fetchers.computeIfAbsent(source, key -> new Shared(
+                new ImageFetcher(key, options.getCaptureMode(), options.getFrameSource()), options.getFrameSourceName()));
+
+        ImageFetcher fetcher = shared.fetcher;
+        if (fetcher.getMode() != options.getCaptureMode() || !shared.frameSource.equals(options.getFrameSourceName())) {
+            LOG.warn("Source " + source + " is already captured with capture " + fetcher.getMode().name().toLowerCase()
+                    + " from " + shared.frameSource + ", ignoring capture " + options.getCaptureMode().name().toLowerCase()
+                    + " from " + options.getFrameSourceName());
+        }
+        return fetcher;
+    }
+
+    private static class Shared {
+
+        private final ImageFetcher fetcher;
+        private final String frameSource;
+
+        private Shared(ImageFetcher fetcher, String frameSource) {
+            this.fetcher = fetcher;
+            this.frameSource = frameSource;
+        }
+    }
+}
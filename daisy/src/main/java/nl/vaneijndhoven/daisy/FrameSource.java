@@ -0,0 +1,30 @@
+package nl.vaneijndhoven.daisy;
+
+import org.opencv.core.Mat;
+
+/**
+ * Source of frames for the {@link ImageFetcher} capture thread, split in a cheap {@link #grab()} that keeps the
+ * source current and a {@link #retrieve(Mat)} that decodes the last grabbed frame. All calls are made from the
+ * capture thread, except for {@link #release()} when a stopped capture thread does not return from a grab.
+ */
+public interface FrameSource {
+
+    boolean grab();
+
+    boolean retrieve(Mat frame);
+
+    /**
+     * Called once, from the capture thread when it ends, or from the stopping thread to unblock a capture thread
+     * that is stuck in {@link #grab()}.
+     */
+    void release();
+
+    /**
+     * @return true when every frame must reach the subscribers (no frames are dropped), capture then waits for each
+     * frame to be taken before grabbing the next one.
+     */
+    default boolean isLossless() {
+        return false;
+    }
+
+}
@@ -0,0 +1,242 @@
+package nl.vaneijndhoven.daisy;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import nl.vaneijndhoven.dukes.hazardcounty.Characters;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * In-JVM store of the most recent images per video source and image type (camera frame, lane overlay, edges,
+ * bird's-eye view), keyed by frame sequence number. Images are stored as reference counted {@link Frame}s: readers
+ * (Roscoe, recorders, secondary detectors) acquire a zero-copy handle at their own rate and close it when done, an
+ * image is released once it has been evicted and its last reader finished. Handles are read-only.
+ * <p>
+ * Debug images that nothing in the control path needs are only worth producing while someone looks at them.
+ * Producers ask {@link #wanted} before they copy an image, a type is wanted for a while after a reader acquired
+ * it. The first request after a pause therefore finds no (or an old) image, the next ones find fresh images.
+ * Images that can be computed from another type of the same source (like the bird's-eye view) are registered as
+ * derived types instead: they are computed when a reader asks for them, at most once per frame sequence.
+ */
+public class FrameStore implements Shareable {
+
+    public static final String CAMERA = "camera";
+    public static final String LANE = "lane";
+    public static final String EDGES = "edges";
+    public static final String BIRDS_EYE = "birdseye";
+
+    private static final String SHARED_KEY = "frameStore";
+    private static final int DEFAULT_DEPTH = 2;
+    private static final long DEFAULT_READER_TIMEOUT = 2000;
+
+    private final ConcurrentMap<String, Source> sources = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Derivation> derivations = new ConcurrentHashMap<>();
+    private final int depth;
+    private final long readerTimeout;
+    private volatile String lastSource;
+
+    public FrameStore() {
+        this(DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param depth number of frames kept per source and type.
+     */
+    public FrameStore(int depth) {
+        this(depth, DEFAULT_READER_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param depth number of frames kept per source and type.
+     * @param readerTimeout how long a type stays {@link #wanted} after it was last acquired.
+     */
+    public FrameStore(int depth, long readerTimeout, TimeUnit unit) {
+        this.depth = depth;
+        this.readerTimeout = unit.toNanos(readerTimeout);
+    }
+
+    /**
+     * @return the store shared by all verticles in this JVM.
+     */
+    public static FrameStore shared(Vertx vertx) {
+        LocalMap<String, Object> map = vertx.sharedData().getLocalMap(Characters.DAISY.name());
+        FrameStore store = new FrameStore();
+        Object existing = map.putIfAbsent(SHARED_KEY, store);
+        return existing != null ? (FrameStore) existing : store;
+    }
+
+    /**
+     * Stores the frame, taking over the caller's reference. Call {@link Frame#tryRetain()} first to keep using it.
+     */
+    public void publish(String source, String type, Frame frame) {
+        lastSource = source;
+        store(source(source).frames(type), frame);
+    }
+
+    private void store(ConcurrentNavigableMap<Long, Frame> frames, Frame frame) {
+        Frame previous = frames.put(frame.getSequence(), frame);
+        if (previous != null && previous != frame) {
+            previous.close();
+        }
+
+        while (frames.size() > depth) {
+            Map.Entry<Long, Frame> oldest = frames.pollFirstEntry();
+            if (oldest != null) {
+                oldest.getValue().close();
+            }
+        }
+    }
+
+    /**
+     * @return true when a reader acquired this type of the source recently, producers skip images nobody looks at.
+     */
+    public boolean wanted(String source, String type) {
+        Source stored = sources.get(source);
+        Long read = stored != null ? stored.reads.get(type) : null;
+        return read != null && System.nanoTime() - read < readerTimeout;
+    }
+
+    /**
+     * Registers a type that is computed from the newest frame of another type of the same source on demand. The
+     * function returns a new frame (typically {@link Frame#derive}) and must not close the source frame.
+     */
+    public void derive(String type, String from, Function<Frame, Frame> function) {
+        derivations.put(type, new Derivation(from, function));
+    }
+
+    /**
+     * @return the newest frame of this type of the source (the caller must close it), or null when there is none.
+     */
+    public Frame acquire(String source, String type) {
+        Source stored = read(source, type);
+        Derivation derivation = derivations.get(type);
+        return derivation != null ? derivation.acquire(stored, type) : newest(stored, type);
+    }
+
+    /**
+     * @return the frame with the given sequence number (the caller must close it), or null when it is not (or no
+     * longer) stored.
+     */
+    public Frame acquire(String source, String type, long sequence) {
+        return stored(read(source, type), type, sequence);
+    }
+
+    /**
+     * @return the sources known to the store, for readers that do not name one.
+     */
+    public Set<String> sources() {
+        return sources.keySet();
+    }
+
+    /**
+     * @return the source that published last, or null when nothing was published yet.
+     */
+    public String lastSource() {
+        return lastSource;
+    }
+
+    /**
+     * Drops all stored frames, readers holding a handle keep it until they close it.
+     */
+    public void clear() {
+        sources.values().forEach(source -> source.streams.values().forEach(frames -> {
+            Map.Entry<Long, Frame> entry;
+            while ((entry = frames.pollFirstEntry()) != null) {
+                entry.getValue().close();
+            }
+        }));
+    }
+
+    private Source source(String source) {
+        return sources.computeIfAbsent(source, key -> new Source());
+    }
+
+    private Source read(String source, String type) {
+        Source stored = source(source);
+        stored.reads.put(type, System.nanoTime());
+        return stored;
+    }
+
+    private static Frame newest(Source source, String type) {
+        ConcurrentNavigableMap<Long, Frame> frames = source.streams.get(type);
+        if (frames == null) {
+            return null;
+        }
+
+        while (true) {
+            Map.Entry<Long, Frame> newest = frames.lastEntry();
+            if (newest == null) {
+                return null;
+            }
+            if (newest.getValue().tryRetain()) {
+                return newest.getValue();
+            }
+            // evicted in between, released frames are removed from the map before they are closed
+            frames.remove(newest.getKey(), newest.getValue());
+        }
+    }
+
+    private static Frame stored(Source source, String type, long sequence) {
+        ConcurrentNavigableMap<Long, Frame> frames = source.streams.get(type);
+        Frame frame = frames != null ? frames.get(sequence) : null;
+        return frame != null && frame.tryRetain() ? frame : null;
+    }
+
+    /**
+     * Frames and last read times per type of one source.
+     */
+    private static class Source {
+
+        private final ConcurrentMap<String, ConcurrentNavigableMap<Long, Frame>> streams = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Long> reads = new ConcurrentHashMap<>();
+
+        private ConcurrentNavigableMap<Long, Frame> frames(String type) {
+            return streams.computeIfAbsent(type, key -> new ConcurrentSkipListMap<>());
+        }
+    }
+
+    private class Derivation {
+
+        private final String from;
+        private final Function<Frame, Frame> function;
+
+        private Derivation(String from, Function<Frame, Frame> function) {
+            this.from = from;
+            this.function = function;
+        }
+
+        private Frame acquire(Source source, String type) {
+            try (Frame origin = newest(source, from)) {
+                if (origin == null) {
+                    return newest(source, type);
+                }
+
+                Frame derived = stored(source, type, origin.getSequence());
+                if (derived != null) {
+                    return derived;
+                }
+
+                // one derivation per source at a time, concurrent readers of the same sequence wait for it and share
+                // the result
+                ConcurrentNavigableMap<Long, Frame> frames = source.frames(type);
+                synchronized (frames) {
+                    derived = stored(source, type, origin.getSequence());
+                    if (derived == null) {
+                        derived = function.apply(origin);
+                        derived.tryRetain();
+                        store(frames, derived);
+                    }
+                    return derived;
+                }
+            }
+        }
+    }
+}
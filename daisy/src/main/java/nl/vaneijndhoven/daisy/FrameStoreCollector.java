@@ -0,0 +1,45 @@
+package nl.vaneijndhoven.daisy;
+
+import nl.vaneijndhoven.opencv.tools.ImageCollector;
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import org.opencv.core.Mat;
+
+/**
+ * Collects the intermediate images of one frame into the {@link FrameStore} as pooled copies, instead of encoding
+ * every image to PNG up front. Images are only copied while a reader wants them, readers encode (or otherwise use)
+ * them at their own rate.
+ */
+class FrameStoreCollector extends ImageCollector {
+
+    private final FrameStore store;
+    private final MatPool pool;
+    private final String source;
+    private final Frame frame;
+
+    FrameStoreCollector(FrameStore store, MatPool pool, String source, Frame frame) {
+        this.store = store;
+        this.pool = pool;
+        this.source = source;
+        this.frame = frame;
+    }
+
+    @Override
+    public void edges(Mat image) {
+        publish(FrameStore.EDGES, image);
+    }
+
+    @Override
+    public void lines(Mat lines) {
+        // the lane overlay is published by Daisy as a whole frame
+    }
+
+    private void publish(String type, Mat image) {
+        if (!store.wanted(source, type)) {
+            return;
+        }
+
+        MatPool.Lease copy = pool.lease(image.rows(), image.cols(), image.type());
+        image.copyTo(copy.get());
+        store.publish(source, type, frame.derive(copy));
+    }
+}
@@ -1,66 +1,351 @@
 package nl.vaneijndhoven.daisy;
 
-import nl.vaneijndhoven.opencv.tools.MemoryManagement;
+import nl.vaneijndhoven.opencv.tools.MatPool;
 import org.opencv.core.Mat;
 import org.opencv.videoio.VideoCapture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import rx.Observable;
-import rx.functions.Action1;
-import rx.functions.Func0;
-import rx.functions.Func1;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class ImageFetcher {
 
-    private VideoCapture capture = new VideoCapture();
+    private static final Logger LOG = LoggerFactory.getLogger(ImageFetcher.class);
+    private static final long PULL_TIMEOUT = 100;
+    private static final long STOP_TIMEOUT = 1000;
+
+    public enum CaptureMode {
+        /**
+         * Read (grab and decode) every frame, the newest one is kept.
+         */
+        READ,
+        /**
+         * Grab every frame to keep the stream current, only retrieve (decode) a frame when a consumer asks for one.
+         */
+        GRAB
+    }
+
+    private VideoCapture videoCapture = new VideoCapture();
     private String source;
+    private CaptureMode mode;
+    private Function<String, FrameSource> sourceFactory;
+
+    private final LatestFrameBuffer buffer = new LatestFrameBuffer();
+    private final AtomicBoolean demand = new AtomicBoolean(false);
+    private final AtomicLong grabbed = new AtomicLong();
+    private final AtomicLong retrieveFailed = new AtomicLong();
+    private volatile Capture capture;
+    private volatile int subscribers = 0;
 
     public ImageFetcher(String source) {
+        this(source, CaptureMode.READ);
+    }
+
+    public ImageFetcher(String source, CaptureMode mode) {
+        this(source, mode, VideoCaptureSource::new);
+    }
+
+    public ImageFetcher(String source, CaptureMode mode, Function<String, FrameSource> sourceFactory) {
         this.source = source;
+        this.mode = mode;
+        this.sourceFactory = sourceFactory;
     }
 
     public Mat fetch() {
-        if (!this.capture.isOpened()) {
-            this.capture.open(source);
+        if (!this.videoCapture.isOpened()) {
+            this.videoCapture.open(source);
             throw new IllegalStateException("Trying to fetch image from unopened VideoCapture");
         }
 
         final Mat frame = new Mat();
 
-        this.capture.read(frame);
+        this.videoCapture.read(frame);
 
         return !frame.empty() ? frame : null;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
+    /**
+     * Emits the newest captured frame every interval. Frames are read on a dedicated capture thread, frames that
+     * were captured in between two ticks are dropped without ever reaching the subscriber. No frame is emitted
+     * on a tick if nothing new was captured since the previous tick.
+     *
+     * In {@link CaptureMode#GRAB} mode a tick signals demand and waits (at most one interval) for the capture
+     * thread to retrieve the next grabbed frame, frames without demand are never retrieved.
+     *
+     * Any number of subscribers share the same capture, each at its own rate. Capture starts with the first
+     * subscriber and stops when the last one unsubscribes. Emitted frames carry their grab sequence number (gaps
+     * are dropped frames) and grab time, they may be shared with other subscribers and must be treated as
+     * read-only. The subscriber must close each frame when done with it.
+     */
+    public Observable<Frame> toObservable(long interval, TimeUnit unit) {
+        return Observable.using(
+                this::subscribe,
+                subscription -> Observable.interval(interval, unit)
+                        .takeWhile(tick -> isCapturing() || buffer.hasFrame(subscription.get()))
+                        .map(tick -> next(subscription, interval, unit))
+                        .filter(frame -> frame != null),
+                this::unsubscribe);
     }
 
-    public Observable<Mat> toObservable() {
-        // Resource creation.
-        Func0<VideoCapture> resourceFactory = () -> {
-            VideoCapture capture = new VideoCapture();
-            capture.open(source);
-            return capture;
-        };
+    /**
+     * Like {@link #toObservable(long, TimeUnit)}, but the interval until the next frame is asked from the governor
+     * after every tick, and ticks are skipped while the governor reports the pipeline busy. The subscriber reports
+     * each processed frame to the governor.
+     */
+    public Observable<Frame> toObservable(DetectionRateGovernor governor) {
+        return Observable.using(
+                this::subscribe,
+                subscription -> Observable.defer(() -> Observable.timer(governor.nextInterval(), TimeUnit.MILLISECONDS))
+                        .repeat()
+                        .takeWhile(tick -> isCapturing() || buffer.hasFrame(subscription.get()))
+                        .filter(tick -> governor.tryStart())
+                        .map(tick -> {
+                            Frame frame = next(subscription, governor.nextInterval(), TimeUnit.MILLISECONDS);
+                            if (frame == null) {
+                                governor.cancel();
+                            }
+                            return frame;
+                        })
+                        .filter(frame -> frame != null),
+                this::unsubscribe);
+    }
 
-        // Convert to observable.
-        Func1<VideoCapture, Observable<Mat>> observableFactory =
-                capture -> Observable.<Mat>create(subscription -> {
-                    boolean hasNext = true;
-                    while (hasNext) {
-                        final Mat frame = new Mat();
+    /**
+     * Emits every frame as soon as it is captured, without a sampling interval. Meant for lossless sources
+     * ({@link FrameSource#isLossless()}), where capture waits for each frame to be taken so every frame is emitted
+     * exactly once and in order. Frames are pulled on an I/O thread, the next frame is taken when the subscriber
+     * returns from the previous one.
+     */
+    public Observable<Frame> toObservable() {
+        return toObservable(Schedulers.io());
+    }
 
-                        hasNext = capture.read(frame);
+    /**
+     * Like {@link #toObservable()}, with the frames pulled on the given scheduler. For a source that is not lossless
+     * the subscriber sees every frame it keeps up with: in {@link CaptureMode#GRAB} mode it signals demand as soon as
+     * it is done with a frame, so the next grabbed frame is retrieved for it.
+     */
+    public Observable<Frame> toObservable(Scheduler scheduler) {
+        return Observable.using(
+                this::subscribe,
+                subscription -> Observable.<Frame>create(subscriber -> {
+                    while (!subscriber.isUnsubscribed() && (isCapturing() || buffer.hasFrame(subscription.get()))) {
+                        Frame frame = mode == CaptureMode.GRAB
+                                ? next(subscription, PULL_TIMEOUT, TimeUnit.MILLISECONDS)
+                                : buffer.acquire(subscription.get(), PULL_TIMEOUT, TimeUnit.MILLISECONDS);
+                        if (frame != null) {
+                            subscription.set(frame.getSequence());
+                            subscriber.onNext(frame);
+                        }
+                    }
 
-                        subscription.onNext(frame);
+                    if (!subscriber.isUnsubscribed()) {
+                        subscriber.onCompleted();
                     }
+                }).subscribeOn(scheduler),
+                this::unsubscribe);
+    }
+
+    public CaptureMode getMode() {
+        return mode;
+    }
+
+    public LatestFrameBuffer getBuffer() {
+        return buffer;
+    }
+
+    public long getGrabbed() {
+        return grabbed.get();
+    }
+
+    public int getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * @param lastSeen sequence number of the last frame emitted to the subscriber, updated.
+     */
+    private Frame next(AtomicLong lastSeen, long timeout, TimeUnit unit) {
+        Frame frame = buffer.acquire(lastSeen.get());
+        if (frame == null && mode == CaptureMode.GRAB) {
+            demand.set(true);
+            frame = buffer.acquire(lastSeen.get(), timeout, unit);
+        }
+
+        if (frame != null) {
+            lastSeen.set(frame.getSequence());
+        }
+        return frame;
+    }
+
+    private synchronized AtomicLong subscribe() {
+        if (subscribers++ == 0) {
+            startCapture();
+        }
+
+        return new AtomicLong();
+    }
 
-                    subscription.onCompleted();
-                });//.switchMap(MemoryManagement::disposable);
+    private synchronized void unsubscribe(AtomicLong subscription) {
+        if (--subscribers == 0) {
+            stopCapture();
+        }
+    }
 
-        // Disposal function.
-        Action1<VideoCapture> dispose = VideoCapture::release;
+    private boolean isCapturing() {
+        Capture current = capture;
+        return current != null && current.isRunning();
+    }
+
+    private void startCapture() {
+        capture = new Capture(sourceFactory.apply(source));
+        capture.start();
+
+        LOG.info("Started capture thread (" + mode + ") for source: " + source);
+    }
 
-        return Observable.using(resourceFactory, observableFactory, dispose);
+    private void stopCapture() {
+        Capture stopped = capture;
+        capture = null;
+        stopped.stop();
+
+        buffer.clear();
+        LOG.info("Stopped capture for source: " + source + " (grabbed: " + grabbed + ", failed: " + retrieveFailed + ", " + buffer + ")");
+    }
+
+    /**
+     * One run of the capture thread, from the first subscriber to the last unsubscribe. Every run has its own stop
+     * flag, source and pool: a thread of an earlier run that is still blocked in a grab when a new run starts never
+     * publishes into the buffer again and can not stop the new run. The thread closes its pool when it exits, the
+     * last frames it leased are returned by their readers.
+     */
+    private class Capture {
+
+        private final FrameSource frameSource;
+        private final MatPool pool = new MatPool();
+        private final Thread thread;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private volatile boolean running = true;
+
+        private Capture(FrameSource frameSource) {
+            this.frameSource = frameSource;
+            this.thread = new Thread(this::capture, "daisy-capture-" + source);
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private boolean isRunning() {
+            return running;
+        }
+
+        /**
+         * Stops the run and interrupts the thread. A thread still blocked in a grab after the join timeout gets its
+         * source released underneath it, which makes the grab return.
+         */
+        private void stop() {
+            synchronized (this) {
+                running = false;
+            }
+            thread.interrupt();
+
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (thread.isAlive()) {
+                LOG.warn("Capture thread for source " + source + " still running after " + STOP_TIMEOUT + "ms, releasing source");
+                release();
+            }
+        }
+
+        /**
+         * Publishes the frame unless the run was stopped in the mean time.
+         */
+        private synchronized boolean publish(Frame frame) {
+            if (!running) {
+                frame.close();
+                return false;
+            }
+
+            buffer.put(frame);
+            return true;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                frameSource.release();
+            }
+        }
+
+        private void capture() {
+            int rows = 0;
+            int cols = 0;
+            int type = 0;
+
+            boolean lossless = frameSource.isLossless();
+
+            try {
+                while (running) {
+                    if (!frameSource.grab()) {
+                        break;
+                    }
+
+                    long sequence = grabbed.incrementAndGet();
+                    long captureNanos = System.nanoTime();
+                    long captureTime = System.currentTimeMillis();
+
+                    if (mode == CaptureMode.GRAB && !lossless && !demand.compareAndSet(true, false)) {
+                        continue;
+                    }
+
+                    MatPool.Lease image = pool.lease(rows, cols, type);
+
+                    if (!frameSource.retrieve(image.get()) || image.get().empty()) {
+                        // corrupt or truncated frame, the next grab decides whether the source ended
+                        image.close();
+                        retrieveFailed.incrementAndGet();
+                        if (mode == CaptureMode.GRAB && !lossless) {
+                            demand.set(true);
+                        }
+                        continue;
+                    }
+
+                    rows = image.get().rows();
+                    cols = image.get().cols();
+                    type = image.get().type();
+
+                    Frame frame = new Frame(image, sequence, captureNanos, captureTime);
+                    if (!publish(frame)) {
+                        break;
+                    }
+
+                    if (lossless) {
+                        buffer.awaitAcquired(frame, ImageFetcher.this::getSubscribers, this::isRunning);
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (running) {
+                    throw e;
+                }
+                // source released while the stopped thread was still using it
+                LOG.debug("Capture thread for source " + source + " ended after stop: " + e);
+            } finally {
+                running = false;
+                release();
+                pool.close();
+                LOG.info("Capture thread ended for source: " + source + " (buffers " + pool + ")");
+            }
+        }
     }
 }
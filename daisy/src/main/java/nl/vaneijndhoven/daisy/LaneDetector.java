@@ -1,16 +1,17 @@
 package nl.vaneijndhoven.daisy;
 
 import nl.vaneijndhoven.opencv.edgedectection.CannyEdgeDetector;
+import nl.vaneijndhoven.opencv.edgedectection.EdgePreprocessor;
 import nl.vaneijndhoven.opencv.lanedetection.ImageLaneDetection;
 import nl.vaneijndhoven.opencv.linedetection.ProbabilisticHoughLinesLineDetector;
+import nl.vaneijndhoven.opencv.tools.Downscale;
 import nl.vaneijndhoven.opencv.tools.ImageCollector;
-import nl.vaneijndhoven.opencv.tools.MemoryManagement;
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import nl.vaneijndhoven.opencv.tools.StageTimings;
 import org.opencv.core.Mat;
 
 import java.util.Map;
 
-import static nl.vaneijndhoven.opencv.tools.MemoryManagement.closable;
-
 public class LaneDetector {
 
     public static double DEFAULT_LANE_BOUNDARY_ANGLE = 45;
@@ -24,14 +25,21 @@ public class LaneDetector {
     public static final double DEFAULT_LINE_DETECT_MIN_LINE_LENGTH = 0d;
     public static final double DEFAULT_LINE_DETECT_MAX_LINE_GAP = 98d;
 
-    private CannyEdgeDetector.Config cannyConfig;
-    private ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig;
+    private final ImageLaneDetection laneDetection;
     private ImageCollector collector;
+    private long configVersion = -1;
 
 
     public LaneDetector(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig, ImageCollector collector) {
-        this.cannyConfig = cannyConfig;
-        this.lineDetectorConfig = lineDetectorConfig;
+        this(cannyConfig, lineDetectorConfig, collector, new MatPool());
+    }
+
+    public LaneDetector(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig, ImageCollector collector, MatPool pool) {
+        this(cannyConfig, lineDetectorConfig, collector, pool, Downscale.NONE);
+    }
+
+    public LaneDetector(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig, ImageCollector collector, MatPool pool, Downscale downscale) {
+        this.laneDetection = new ImageLaneDetection(cannyConfig, lineDetectorConfig, pool, downscale);
         this.collector = collector;
     }
 
@@ -41,19 +49,63 @@ public class LaneDetector {
     }
 
     public Map<String, Object> performLaneDetection(Mat originalImage) {
-        ImageLaneDetection laneDetect = new ImageLaneDetection(cannyConfig, lineDetectorConfig);
-        return laneDetect.detectLane(originalImage, collector);
+        return laneDetection.detectLane(originalImage, collector);
+    }
+
+    /**
+     * Applies the snapshot when its version differs from the one applied last, the detectors are rebuilt at the
+     * next frame.
+     */
+    public void setConfig(DetectorConfig config) {
+        if (config.getVersion() == configVersion) {
+            return;
+        }
+
+        configVersion = config.getVersion();
+        laneDetection.setConfig(config.getCanny(), config.getHough());
     }
 
     public void setCannyConfig(CannyEdgeDetector.Config cannyConfig) {
-        this.cannyConfig = cannyConfig;
+        laneDetection.setCannyConfig(cannyConfig);
     }
 
     public void setLineDetectorConfig(ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig) {
-        this.lineDetectorConfig = lineDetectorConfig;
+        laneDetection.setLineDetectorConfig(lineDetectorConfig);
     }
 
     public void setCollector(ImageCollector collector) {
         this.collector = collector;
     }
+
+    public void setDownscale(Downscale downscale) {
+        laneDetection.setDownscale(downscale);
+    }
+
+    public void setPreprocessor(EdgePreprocessor preprocessor) {
+        laneDetection.setPreprocessor(preprocessor);
+    }
+
+    public void setSplitFields(boolean splitFields) {
+        laneDetection.setSplitFields(splitFields);
+    }
+
+    public void setSlidingWindows(boolean slidingWindows) {
+        laneDetection.setSlidingWindows(slidingWindows);
+    }
+
+    public void setTracking(boolean tracking) {
+        laneDetection.setTracking(tracking);
+    }
+
+    public void setAutoTune(boolean autoTune) {
+        laneDetection.setAutoTune(autoTune);
+    }
+
+    public void setDrawing(boolean drawing) {
+        laneDetection.setDrawing(drawing);
+    }
+
+    public void setTimings(StageTimings timings) {
+        laneDetection.setTimings(timings);
+    }
 }
@@ -0,0 +1,154 @@
+package nl.vaneijndhoven.daisy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Single slot hand-over between a producer (capture thread) and any number of consumers (detectors). The
+ * producer always overwrites the slot, the buffer holds one reference to the newest frame and releases it when
+ * the frame is overwritten. Consumers retain the newest frame they have not seen yet, so each consumer skips
+ * frames at its own rate without affecting the others.
+ */
+public class LatestFrameBuffer {
+
+    private final AtomicReference<Frame> slot = new AtomicReference<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+    private volatile int waiting = 0;
+    private volatile long newestAcquired = 0;
+    private volatile Thread producer;
+
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong overwritten = new AtomicLong();
+
+    public void put(Frame frame) {
+        captured.incrementAndGet();
+        Frame previous = slot.getAndSet(frame);
+        if (previous != null) {
+            if (previous.getSequence() > newestAcquired) {
+                overwritten.incrementAndGet();
+            }
+            previous.close();
+        }
+
+        if (waiting > 0) {
+            lock.lock();
+            try {
+                arrived.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param after sequence number of the last frame the consumer has seen.
+     * @return the newest frame (retained, the consumer must close it), or null when no frame newer than the given
+     * sequence number was captured.
+     */
+    public Frame acquire(long after) {
+        while (true) {
+            Frame frame = slot.get();
+            if (frame == null || frame.getSequence() <= after) {
+                return null;
+            }
+
+            if (frame.tryRetain()) {
+                consumed.incrementAndGet();
+                frame.acquired();
+                newestAcquired = Math.max(newestAcquired, frame.getSequence());
+
+                Thread waitingProducer = producer;
+                if (waitingProducer != null) {
+                    LockSupport.unpark(waitingProducer);
+                }
+                return frame;
+            }
+            // overwritten and released in between, try the newer one
+        }
+    }
+
+    /**
+     * Waits at most the given timeout for a frame newer than the given sequence number to arrive.
+     *
+     * @return the newest frame (retained, the consumer must close it), or null when no frame arrived in time.
+     */
+    public Frame acquire(long after, long timeout, TimeUnit unit) {
+        Frame frame = acquire(after);
+        if (frame != null) {
+            return frame;
+        }
+
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        waiting++;
+        try {
+            while ((frame = acquire(after)) == null && remaining > 0) {
+                remaining = arrived.awaitNanos(remaining);
+            }
+            return frame;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            waiting--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks the producer until the given number of consumers acquired the frame, or the condition no longer holds.
+     *
+     * @return true when the frame was acquired by all consumers.
+     */
+    public boolean awaitAcquired(Frame frame, IntSupplier consumers, BooleanSupplier condition) {
+        producer = Thread.currentThread();
+        try {
+            while (frame.getAcquisitions() < consumers.getAsInt()) {
+                if (!condition.getAsBoolean()) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            return true;
+        } finally {
+            producer = null;
+        }
+    }
+
+    public boolean hasFrame(long after) {
+        Frame frame = slot.get();
+        return frame != null && frame.getSequence() > after;
+    }
+
+    public void clear() {
+        Frame frame = slot.getAndSet(null);
+        if (frame != null) {
+            frame.close();
+        }
+    }
+
+    public long getCaptured() {
+        return captured.get();
+    }
+
+    public long getConsumed() {
+        return consumed.get();
+    }
+
+    public long getOverwritten() {
+        return overwritten.get();
+    }
+
+    @Override
+    public String toString() {
+        return "captured: " + captured.get() + ", consumed: " + consumed.get() + ", overwritten: " + overwritten.get();
+    }
+}
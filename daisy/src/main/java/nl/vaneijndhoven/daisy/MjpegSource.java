@@ -0,0 +1,610 @@
+package nl.vaneijndhoven.daisy;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Non-blocking HTTP client for MJPEG (multipart/x-mixed-replace) streams and single JPEG snapshot endpoints, as
+ * served by the Raspberry Pi camera web interface.
+ *
+ * {@link #grab()} drains everything the socket has available, parses the multipart boundaries directly from the
+ * receive buffer and only keeps the newest complete JPEG, older ones are skipped without being copied or decoded.
+ * {@link #retrieve(Mat)} decodes the kept JPEG, optionally at a reduced size (1/2, 1/4 or 1/8) which lets libjpeg
+ * skip most of the DCT work (falling back to resizing where the OpenCV build does not support it). Snapshot
+ * endpoints are requested again for every grab, over the same (keep-alive) connection when the server allows it.
+ * When the server closes the connection the frames received up to then are kept and the next grab reconnects. A
+ * grab gives up after a few failed reconnects, a connection that ends without a new frame counts as failed.
+ */
+public class MjpegSource implements FrameSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MjpegSource.class);
+
+    private static final long DEFAULT_TIMEOUT = 2000;
+    private static final int INITIAL_BUFFER_SIZE = 512 * 1024;
+    private static final int MAX_RECONNECTS = 3;
+    private static final long RECONNECT_BACKOFF = 100;
+
+    private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private enum State { IDLE, RESPONSE_HEADERS, PART_HEADERS, PART_BODY, SNAPSHOT_BODY }
+
+    private final URI uri;
+    private final int decodeScale;
+    private final int decodeFlags;
+    private Boolean reducedDecoding;
+    private final long timeout;
+
+    private Selector selector;
+    private SocketChannel channel;
+    private ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private int readPosition = 0;
+
+    private State state = State.IDLE;
+    private byte[] delimiter;
+    private int bodyLength = -1;
+    private boolean keepAlive = false;
+
+    private byte[] latest = new byte[0];
+    private int latestLength = 0;
+    private int lastStart = -1;
+    private int lastEnd = -1;
+    private long latestReceived = 0;
+    private Mat encoded;
+
+    private long received = 0;
+    private long skipped = 0;
+    private long decoded = 0;
+    private long totalAgeNanos = 0;
+
+    public MjpegSource(String source) {
+        this(source, 1);
+    }
+
+    /**
+     * @param decodeScale 1, 2, 4 or 8, decode JPEGs at 1/decodeScale of their size.
+     */
+    public MjpegSource(String source, int decodeScale) {
+        this(source, decodeScale, DEFAULT_TIMEOUT);
+    }
+
+    public MjpegSource(String source, int decodeScale, long timeout) {
+        this.uri = URI.create(source);
+        this.decodeScale = decodeScale;
+        this.decodeFlags = decodeFlags(decodeScale);
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean grab() {
+        long before = received;
+        int reconnects = 0;
+
+        while (true) {
+            try {
+                if (channel == null) {
+                    connect();
+                }
+
+                if (state == State.IDLE) {
+                    request();
+                }
+
+                // what was read before the end of the stream is parsed first, it may hold complete frames
+                boolean open = readAvailable();
+                parse();
+
+                if (!open) {
+                    // end of stream, a snapshot without content length ends with the connection
+                    if (state == State.SNAPSHOT_BODY && bodyLength < 0) {
+                        complete(readPosition, in.position());
+                        readPosition = in.position();
+                        copyLatest();
+                    }
+                    disconnect();
+                }
+
+                if (received > before) {
+                    return true;
+                }
+
+                if (!open) {
+                    // closed before a complete frame (e.g. after the headers or in the middle of a part), counted
+                    // like a read error so a server that keeps doing so is not reconnected to in a tight loop
+                    LOG.warn("Connection to " + uri + " closed before a complete frame");
+                    if (!reconnect(++reconnects)) {
+                        return false;
+                    }
+                } else if (channel != null && state != State.IDLE && selector.select(timeout) == 0) {
+                    throw new SocketTimeoutException("No data received from " + uri + " within " + timeout + "ms");
+                }
+            } catch (IOException e) {
+                LOG.warn("Error reading from " + uri + ": " + e.getMessage());
+                disconnect();
+                if (!reconnect(++reconnects)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits before the given reconnect attempt of one grab: not before the first, then doubling from
+     * {@link #RECONNECT_BACKOFF}.
+     *
+     * @return false when the attempts are used up or the grabbing thread was interrupted.
+     */
+    private boolean reconnect(int attempt) {
+        if (attempt > MAX_RECONNECTS) {
+            return false;
+        }
+        if (attempt == 1) {
+            return true;
+        }
+
+        try {
+            Thread.sleep(RECONNECT_BACKOFF << (attempt - 2));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean retrieve(Mat frame) {
+        if (latestLength == 0) {
+            return false;
+        }
+
+        if (encoded == null || encoded.rows() < latestLength) {
+            if (encoded != null) {
+                encoded.release();
+            }
+            encoded = new Mat(latest.length, 1, CvType.CV_8UC1);
+        }
+
+        Mat jpeg = encoded.rowRange(0, latestLength);
+        jpeg.put(0, 0, latest);
+        Mat image = Imgcodecs.imdecode(jpeg, decodeFlags);
+
+        try {
+            if (image.empty()) {
+                return false;
+            }
+
+            if (decodeScale > 1 && !reducedDecoding(jpeg, image)) {
+                Imgproc.resize(image, frame, new Size(image.cols() / decodeScale, image.rows() / decodeScale), 0, 0, Imgproc.INTER_AREA);
+            } else {
+                image.copyTo(frame);
+            }
+            decoded++;
+            totalAgeNanos += System.nanoTime() - latestReceived;
+            return true;
+        } finally {
+            jpeg.release();
+            image.release();
+        }
+    }
+
+    /**
+     * Not every OpenCV build honours the reduced flags in imdecode (only in imread), probe once with a full decode
+     * and fall back to resizing when the reduced decode did not shrink the image.
+     */
+    private boolean reducedDecoding(Mat jpeg, Mat image) {
+        if (reducedDecoding == null) {
+            Mat full = Imgcodecs.imdecode(jpeg, Imgcodecs.IMREAD_COLOR);
+            reducedDecoding = image.cols() < full.cols();
+            full.release();
+            LOG.info("Reduced JPEG decoding " + (reducedDecoding ? "supported" : "not supported, resizing decoded frames"));
+        }
+        return reducedDecoding;
+    }
+
+    @Override
+    public void release() {
+        disconnect();
+
+        if (encoded != null) {
+            encoded.release();
+            encoded = null;
+        }
+
+        LOG.info("Released MJPEG source " + uri + " (" + this + ")");
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getDecoded() {
+        return decoded;
+    }
+
+    /**
+     * @return a copy of the newest complete JPEG, as received (not decoded).
+     */
+    byte[] getLatest() {
+        return Arrays.copyOf(latest, latestLength);
+    }
+
+    /**
+     * @return average time between receiving the last byte of a JPEG and decoding it, in milliseconds.
+     */
+    public double getAverageFrameAge() {
+        return decoded > 0 ? totalAgeNanos / 1_000_000d / decoded : Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return "MJPEG received: " + received + ", skipped: " + skipped + ", decoded: " + decoded
+                + ", average frame age: " + String.format("%.1f", getAverageFrameAge()) + "ms";
+    }
+
+    private void connect() throws IOException {
+        int port = uri.getPort() > 0 ? uri.getPort() : 80;
+
+        selector = Selector.open();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(new InetSocketAddress(uri.getHost(), port));
+        channel.register(selector, SelectionKey.OP_CONNECT);
+
+        if (selector.select(timeout) == 0 || !channel.finishConnect()) {
+            throw new SocketTimeoutException("Unable to connect to " + uri + " within " + timeout + "ms");
+        }
+
+        channel.register(selector, SelectionKey.OP_READ);
+        selector.selectedKeys().clear();
+        state = State.IDLE;
+        LOG.info("Connected to " + uri);
+    }
+
+    private void disconnect() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            LOG.debug("Error closing connection to " + uri, e);
+        }
+
+        channel = null;
+        selector = null;
+        state = State.IDLE;
+        in.clear();
+        readPosition = 0;
+    }
+
+    private void request() throws IOException {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+
+        // HTTP/1.0 so the server never answers with a chunked transfer encoding.
+        String request = "GET " + path + " HTTP/1.0\r\n"
+                + "Host: " + uri.getHost() + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+
+        ByteBuffer out = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+
+        state = State.RESPONSE_HEADERS;
+    }
+
+    /**
+     * Reads everything currently available without blocking.
+     *
+     * @return false on end of stream.
+     */
+    private boolean readAvailable() throws IOException {
+        selector.selectedKeys().clear();
+
+        while (true) {
+            if (!in.hasRemaining()) {
+                grow(in.capacity() * 2);
+            }
+
+            int read = channel.read(in);
+            if (read < 0) {
+                return false;
+            }
+            if (read == 0) {
+                return true;
+            }
+        }
+    }
+
+    private void parse() throws IOException {
+        lastStart = -1;
+        lastEnd = -1;
+
+        boolean progress = true;
+        while (progress) {
+            switch (state) {
+                case RESPONSE_HEADERS:
+                    progress = parseResponseHeaders();
+                    break;
+                case PART_HEADERS:
+                    progress = parsePartHeaders();
+                    break;
+                case PART_BODY:
+                    progress = parsePartBody();
+                    break;
+                case SNAPSHOT_BODY:
+                    progress = parseSnapshotBody();
+                    break;
+                default:
+                    progress = false;
+            }
+        }
+
+        copyLatest();
+        compact();
+    }
+
+    private boolean parseResponseHeaders() throws IOException {
+        int end = indexOf(HEADER_END, readPosition, in.position());
+        if (end < 0) {
+            return false;
+        }
+
+        String[] lines = ascii(readPosition, end).split("\r\n");
+        readPosition = end + HEADER_END.length;
+
+        if (lines.length == 0 || !lines[0].matches("HTTP/1\\.\\d 200.*")) {
+            throw new IOException("Unexpected response from " + uri + ": " + (lines.length > 0 ? lines[0] : ""));
+        }
+
+        Map<String, String> headers = headers(lines);
+        String contentType = headers.getOrDefault("content-type", "");
+        keepAlive = "keep-alive".equalsIgnoreCase(headers.get("connection"));
+
+        if (contentType.startsWith("multipart/")) {
+            String boundary = parameter(contentType, "boundary");
+            if (boundary == null) {
+                throw new IOException("Multipart response without boundary from " + uri);
+            }
+            delimiter = (boundary.startsWith("--") ? boundary : "--" + boundary).getBytes(StandardCharsets.US_ASCII);
+            state = State.PART_HEADERS;
+        } else {
+            bodyLength = contentLength(headers);
+            state = State.SNAPSHOT_BODY;
+        }
+
+        return true;
+    }
+
+    private boolean parsePartHeaders() {
+        int start = indexOf(delimiter, readPosition, in.position());
+        if (start < 0) {
+            // nothing but preamble or garbage, keep only what could be the start of a delimiter
+            readPosition = Math.max(readPosition, in.position() - delimiter.length);
+            return false;
+        }
+
+        int end = indexOf(HEADER_END, start, in.position());
+        if (end < 0) {
+            readPosition = start;
+            return false;
+        }
+
+        String[] lines = ascii(start, end).split("\r\n");
+        bodyLength = contentLength(headers(lines));
+        readPosition = end + HEADER_END.length;
+        state = State.PART_BODY;
+        return true;
+    }
+
+    private boolean parsePartBody() {
+        int end;
+        if (bodyLength >= 0) {
+            end = readPosition + bodyLength;
+            if (end > in.position()) {
+                ensureCapacity(bodyLength);
+                return false;
+            }
+        } else {
+            end = indexOf(delimiter, readPosition, in.position());
+            if (end < 0) {
+                return false;
+            }
+            end = stripLineBreak(readPosition, end);
+        }
+
+        complete(readPosition, end);
+        readPosition = end;
+        state = State.PART_HEADERS;
+        return true;
+    }
+
+    /**
+     * The delimiter of the next part is preceded by a line break that is not part of the body, CRLF as the
+     * specification says, or a bare LF as some servers send it.
+     *
+     * @return the end of the body.
+     */
+    private int stripLineBreak(int start, int end) {
+        if (end > start && in.get(end - 1) == '\n') {
+            end--;
+            if (end > start && in.get(end - 1) == '\r') {
+                end--;
+            }
+        }
+        return end;
+    }
+
+    private boolean parseSnapshotBody() {
+        if (bodyLength < 0) {
+            // length unknown, the body ends when the server closes the connection
+            return false;
+        }
+
+        int end = readPosition + bodyLength;
+        if (end > in.position()) {
+            ensureCapacity(bodyLength);
+            return false;
+        }
+
+        complete(readPosition, end);
+        readPosition = end;
+
+        if (keepAlive) {
+            state = State.IDLE;
+        } else {
+            copyLatest();
+            disconnect();
+        }
+        return false;
+    }
+
+    private void complete(int start, int end) {
+        if (lastStart >= 0) {
+            skipped++;
+        }
+
+        lastStart = start;
+        lastEnd = end;
+        received++;
+        latestReceived = System.nanoTime();
+    }
+
+    private void copyLatest() {
+        if (lastStart < 0) {
+            return;
+        }
+
+        int length = lastEnd - lastStart;
+        if (latest.length < length) {
+            latest = new byte[length + length / 4];
+        }
+
+        ByteBuffer view = in.duplicate();
+        view.limit(lastEnd);
+        view.position(lastStart);
+        view.get(latest, 0, length);
+        latestLength = length;
+
+        lastStart = -1;
+        lastEnd = -1;
+    }
+
+    private void compact() {
+        in.flip();
+        in.position(readPosition);
+        in.compact();
+        readPosition = 0;
+    }
+
+    private void ensureCapacity(int bodyLength) {
+        int needed = readPosition + bodyLength;
+        if (needed > in.capacity()) {
+            grow(needed);
+        }
+    }
+
+    private void grow(int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity);
+        in.flip();
+        bigger.put(in);
+        in = bigger;
+    }
+
+    private int indexOf(byte[] pattern, int from, int to) {
+        int last = to - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (in.get(i) != pattern[0]) {
+                continue;
+            }
+
+            int j = 1;
+            while (j < pattern.length && in.get(i + j) == pattern[j]) {
+                j++;
+            }
+
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private String ascii(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = in.duplicate();
+        view.limit(end);
+        view.position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static Map<String, String> headers(String[] lines) {
+        Map<String, String> headers = new HashMap<>();
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static int contentLength(Map<String, String> headers) {
+        String length = headers.get("content-length");
+        return length != null ? Integer.parseInt(length) : -1;
+    }
+
+    private static String parameter(String header, String name) {
+        for (String part : header.split(";")) {
+            String[] keyValue = part.trim().split("=", 2);
+            if (keyValue.length == 2 && keyValue[0].trim().equalsIgnoreCase(name)) {
+                return keyValue[1].trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    private static int decodeFlags(int decodeScale) {
+        switch (decodeScale) {
+            case 1:
+                return Imgcodecs.IMREAD_COLOR;
+            case 2:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_2;
+            case 4:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_4;
+            case 8:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_8;
+            default:
+                throw new IllegalArgumentException("Unsupported decode scale " + decodeScale + ", use 1, 2, 4 or 8");
+        }
+    }
+}
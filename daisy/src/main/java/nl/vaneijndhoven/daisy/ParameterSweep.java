@@ -0,0 +1,330 @@
+package nl.vaneijndhoven.daisy;
+
+import nl.vaneijndhoven.dukes.hazardcounty.LatencyHistogram;
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.objects.Lane;
+import nl.vaneijndhoven.opencv.edgedectection.CannyEdgeDetector;
+import nl.vaneijndhoven.opencv.lanedetection.ImageLaneDetection;
+import nl.vaneijndhoven.opencv.linedetection.ProbabilisticHoughLinesLineDetector;
+import nl.vaneijndhoven.opencv.tools.ImageCollector;
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Offline sweep of the Canny and Hough parameters over a recorded video. The frames are decoded once, then every
+ * combination of the parameter grid runs {@link ImageLaneDetection} over all frames in order, the combinations in
+ * parallel on all cores. Each combination is scored on stability (how often a lane boundary is missing, how far the
+ * boundaries jump from frame to frame) and on processing time (mean and p99), and ranked by the sum of its ranks on
+ * those four measures, so no measure needs a weight. Times are measured with all cores busy and are comparable
+ * between combinations, not with a run on the car.
+ *
+ * Usage: ParameterSweep &lt;video file&gt; [maxFrames] [name=value,value,... ...]
+ * with names threshold1, threshold2 (Canny) and rho, theta, threshold, minLineLength, maxLineGap (Hough), e.g.
+ * <pre>ParameterSweep run.mp4 500 threshold1=100,131,160 threshold=30,42,60 maxLineGap=20,50,98</pre>
+ * Parameters that are not given keep the defaults of {@link LaneDetector}.
+ */
+public class ParameterSweep {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParameterSweep.class);
+
+    private static final int DEFAULT_MAX_FRAMES = 500;
+
+    private final List<Mat> frames;
+    private final Map<String, double[]> grid;
+
+    public ParameterSweep(List<Mat> frames, Map<String, double[]> grid) {
+        this.frames = frames;
+        this.grid = grid;
+    }
+
+    /**
+     * @return the default grid: a single combination with the {@link LaneDetector} defaults.
+     */
+    public static Map<String, double[]> defaultGrid() {
+        Map<String, double[]> grid = new LinkedHashMap<>();
+        grid.put("threshold1", new double[]{LaneDetector.DEFAULT_CANNY_THRESHOLD_1});
+        grid.put("threshold2", new double[]{LaneDetector.DEFAULT_CANNY_THRESHOLD_2});
+        grid.put("rho", new double[]{LaneDetector.DEFAULT_LINE_DETECT_RHO});
+        grid.put("theta", new double[]{LaneDetector.DEFAULT_LINE_DETECT_THETA});
+        grid.put("threshold", new double[]{LaneDetector.DEFAULT_LINE_DETECT_THRESHOLD});
+        grid.put("minLineLength", new double[]{LaneDetector.DEFAULT_LINE_DETECT_MIN_LINE_LENGTH});
+        grid.put("maxLineGap", new double[]{LaneDetector.DEFAULT_LINE_DETECT_MAX_LINE_GAP});
+        return grid;
+    }
+
+    /**
+     * Runs all combinations on the given number of threads.
+     *
+     * @return the results, best first.
+     */
+    public List<Result> run(int threads) throws Exception {
+        List<Map<String, Double>> combinations = combinations();
+        LOG.info("Sweeping " + combinations.size() + " combinations over " + frames.size() + " frames on " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Map<String, Double> combination : combinations) {
+                futures.add(executor.submit(() -> evaluate(combination)));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+
+            rank(results);
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Map<String, Double>> combinations() {
+        List<Map<String, Double>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        grid.forEach((name, values) -> {
+            List<Map<String, Double>> expanded = new ArrayList<>();
+            for (Map<String, Double> combination : combinations) {
+                for (double value : values) {
+                    Map<String, Double> next = new LinkedHashMap<>(combination);
+                    next.put(name, value);
+                    expanded.add(next);
+                }
+            }
+            combinations.clear();
+            combinations.addAll(expanded);
+        });
+        return combinations;
+    }
+
+    private Result evaluate(Map<String, Double> combination) {
+        CannyEdgeDetector.Config canny = new CannyEdgeDetector.Config();
+        canny.setThreshold1(combination.get("threshold1"));
+        canny.setThreshold2(combination.get("threshold2"));
+
+        ProbabilisticHoughLinesLineDetector.Config hough = new ProbabilisticHoughLinesLineDetector.Config();
+        hough.setRho(combination.get("rho"));
+        hough.setTheta(combination.get("theta"));
+        hough.setThreshold((int) Math.round(combination.get("threshold")));
+        hough.setMinLineLength(combination.get("minLineLength"));
+        hough.setMaxLineGap(combination.get("maxLineGap"));
+
+        Result result = new Result(combination);
+        try (MatPool pool = new MatPool(); MatPool.Lease work = pool.lease(frames.get(0).size(), frames.get(0).type())) {
+            ImageLaneDetection detection = new ImageLaneDetection(canny, hough, pool);
+            ImageCollector collector = new DiscardingCollector();
+
+            Lane previous = null;
+            for (Mat frame : frames) {
+                Lane lane = detect(detection, collector, frame, work.get(), result);
+                result.add(previous, lane);
+                previous = lane;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the lane found in the frame, or null when the frame is empty or the detection found nothing or failed;
+     * such a frame counts as missing both boundaries instead of ending the combination.
+     */
+    private static Lane detect(ImageLaneDetection detection, ImageCollector collector, Mat frame, Mat work, Result result) {
+        if (frame.empty()) {
+            return null;
+        }
+
+        // the lane overlay is drawn into the image, so every combination works on its own copy
+        frame.copyTo(work);
+
+        long start = System.nanoTime();
+        try {
+            return (Lane) detection.detectLane(work, collector).get("lane");
+        } catch (RuntimeException e) {
+            LOG.warn("Detection failed with " + result.parameters + ": " + e);
+            return null;
+        } finally {
+            result.processing.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sorts the results by the sum of their ranks on missing boundaries, jitter, mean and p99 processing time.
+     */
+    private static void rank(List<Result> results) {
+        addRanks(results, Result::getMissingRate);
+        addRanks(results, Result::getJitter);
+        addRanks(results, Result::getMeanMillis);
+        addRanks(results, Result::getP99Millis);
+        results.sort(Comparator.comparingInt((Result result) -> result.rankSum).thenComparingDouble(Result::getMissingRate));
+    }
+
+    private static void addRanks(List<Result> results, ToDoubleFunction<Result> measure) {
+        List<Result> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(measure));
+        for (int rank = 0; rank < sorted.size(); rank++) {
+            sorted.get(rank).rankSum += rank + 1;
+        }
+    }
+
+    public static String table(List<Result> results) {
+        StringBuilder table = new StringBuilder(String.format("%4s %8s %8s %9s %9s  %s%n", "rank", "missing", "jitter", "mean(ms)", "p99(ms)", "parameters"));
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            table.append(String.format("%4d %7.1f%% %8.1f %9.2f %9.2f  %s%n", i + 1, 100 * result.getMissingRate(), result.getJitter(),
+                    result.getMeanMillis(), result.getP99Millis(), result.parameters));
+        }
+        return table.toString();
+    }
+
+    /**
+     * Scores of one parameter combination.
+     */
+    public static class Result {
+
+        private final Map<String, Double> parameters;
+        private final LatencyHistogram processing = new LatencyHistogram("processing");
+        private long frames = 0;
+        private long missing = 0;
+        private long jumps = 0;
+        private double jumpTotal = 0;
+        private int rankSum = 0;
+
+        private Result(Map<String, Double> parameters) {
+            this.parameters = parameters;
+        }
+
+        /**
+         * @param lane null when nothing was detected in the frame.
+         */
+        private void add(Lane previous, Lane lane) {
+            frames++;
+            if (lane == null) {
+                missing += 2;
+                return;
+            }
+
+            missing += (lane.getLeftBoundary().isPresent() ? 0 : 1) + (lane.getRightBoundary().isPresent() ? 0 : 1);
+            if (previous != null) {
+                jump(previous.getLeftBoundary(), lane.getLeftBoundary());
+                jump(previous.getRightBoundary(), lane.getRightBoundary());
+            }
+        }
+
+        /**
+         * Movement of the bottom and top end of a boundary found in two consecutive frames.
+         */
+        private void jump(Optional<Line> previous, Optional<Line> current) {
+            if (!previous.isPresent() || !current.isPresent()) {
+                return;
+            }
+
+            jumps++;
+            jumpTotal += Math.abs(current.get().bottomMost().getX() - previous.get().bottomMost().getX())
+                    + Math.abs(current.get().topMost().getX() - previous.get().topMost().getX());
+        }
+
+        public Map<String, Double> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return fraction of boundaries (two per frame) that were not found.
+         */
+        public double getMissingRate() {
+            return frames > 0 ? missing / (2d * frames) : 1;
+        }
+
+        /**
+         * @return mean frame to frame movement of a boundary, in pixels.
+         */
+        public double getJitter() {
+            return jumps > 0 ? jumpTotal / jumps : 0;
+        }
+
+        public double getMeanMillis() {
+            return processing.getMean();
+        }
+
+        public double getP99Millis() {
+            return processing.getPercentile(99);
+        }
+    }
+
+    /**
+     * Skips the debug images, a sweep only needs the detection result.
+     */
+    private static class DiscardingCollector extends ImageCollector {
+
+        @Override
+        public void edges(Mat image) {
+        }
+
+        @Override
+        public void lines(Mat lines) {
+        }
+    }
+
+    private static List<Mat> decode(String file, int maxFrames) {
+        List<Mat> frames = new ArrayList<>();
+        VideoCapture capture = new VideoCapture(file);
+        Mat frame = new Mat();
+        while (frames.size() < maxFrames && capture.read(frame)) {
+            frames.add(frame);
+            frame = new Mat();
+        }
+        frame.release();
+        capture.release();
+        return frames;
+    }
+
+    public static void main(String... args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ParameterSweep <video file> [maxFrames] [name=value,value,... ...]");
+            System.exit(1);
+        }
+
+        int maxFrames = DEFAULT_MAX_FRAMES;
+        Map<String, double[]> grid = defaultGrid();
+        for (String arg : Arrays.asList(args).subList(1, args.length)) {
+            if (!arg.contains("=")) {
+                maxFrames = Integer.parseInt(arg);
+                continue;
+            }
+
+            String name = arg.substring(0, arg.indexOf('='));
+            if (!grid.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+            grid.put(name, Arrays.stream(arg.substring(arg.indexOf('=') + 1).split(",")).mapToDouble(Double::parseDouble).toArray());
+        }
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        List<Mat> frames = decode(args[0], maxFrames);
+        if (frames.isEmpty()) {
+            System.err.println("No frames in " + args[0]);
+            System.exit(1);
+        }
+
+        List<Result> results = new ParameterSweep(frames, grid).run(Runtime.getRuntime().availableProcessors());
+        System.out.print(table(results));
+        frames.forEach(Mat::release);
+    }
+}
@@ -0,0 +1,112 @@
+package nl.vaneijndhoven.daisy;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded file at its original frame timing, at a multiple of it, or as fast as possible. Pacing is
+ * based on the timestamps in the file, not on how fast frames decode, so runs are comparable.
+ *
+ * At {@link #MAX_SPEED} the source is lossless: the {@link ImageFetcher} hands every frame to its subscribers, in
+ * order, before grabbing the next one. The throughput of the run is logged when the source is released.
+ */
+public class ReplaySource implements FrameSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplaySource.class);
+
+    public static final double REAL_TIME = 1;
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private final String file;
+    private final double speed;
+    private final VideoCapture capture = new VideoCapture();
+    private final double frameMillis;
+
+    private long frames = 0;
+    private double position = 0;
+    private long started = -1;
+
+    /**
+     * @param speed multiple of the original frame rate, {@link #MAX_SPEED} to replay as fast as frames are consumed.
+     */
+    public ReplaySource(String file, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Invalid replay speed: " + speed);
+        }
+
+        this.file = file;
+        this.speed = speed;
+        capture.open(file);
+
+        double fps = capture.get(Videoio.CAP_PROP_FPS);
+        frameMillis = 1000 / (fps > 0 ? fps : 25);
+    }
+
+    /**
+     * Parses "realtime", "max" or a speed like "4x" / "0.5".
+     */
+    public static double speed(String speed) {
+        if ("realtime".equalsIgnoreCase(speed)) {
+            return REAL_TIME;
+        }
+        if ("max".equalsIgnoreCase(speed)) {
+            return MAX_SPEED;
+        }
+        return Double.parseDouble(speed.toLowerCase().replace("x", ""));
+    }
+
+    @Override
+    public boolean grab() {
+        if (!capture.grab()) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        if (started < 0) {
+            started = now;
+        }
+
+        // file timestamp of this frame, not every backend reports it
+        double timestamp = capture.get(Videoio.CAP_PROP_POS_MSEC);
+        position = timestamp > 0 || frames == 0 ? timestamp : frames * frameMillis;
+        frames++;
+
+        if (speed != MAX_SPEED) {
+            long due = started + (long) (position / speed * 1_000_000);
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean retrieve(Mat frame) {
+        return capture.retrieve(frame);
+    }
+
+    @Override
+    public boolean isLossless() {
+        return speed == MAX_SPEED;
+    }
+
+    @Override
+    public void release() {
+        capture.release();
+
+        double elapsed = started < 0 ? 0 : (System.nanoTime() - started) / 1_000_000_000d;
+        LOG.info(String.format("Replayed %d frames of %s in %.2fs (%.1f fps, %.2fx real time)",
+                frames, file, elapsed, elapsed > 0 ? frames / elapsed : 0, elapsed > 0 ? position / 1000 / elapsed : 0));
+    }
+
+    @Override
+    public String toString() {
+        return "Replay " + (speed == MAX_SPEED ? "max" : speed + "x") + " " + file;
+    }
+}
@@ -0,0 +1,220 @@
+package nl.vaneijndhoven.daisy;
+
+import io.vertx.core.json.JsonObject;
+import nl.vaneijndhoven.opencv.edgedectection.EdgePreprocessor;
+import nl.vaneijndhoven.opencv.tools.Downscale;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * How a stream is captured and processed, parsed once from the "config" of a STREAMADDED message. Unlike the
+ * {@link DetectorConfig} these options are fixed for the lifetime of the stream's pipelines. Every option is off or
+ * at its default when it is not in the config.
+ */
+public final class StreamOptions {
+
+    private final ImageFetcher.CaptureMode captureMode;
+    private final String sourceType;
+    private final int decodeScale;
+    private final double replaySpeed;
+    private final Long interval;
+    private final Long minInterval;
+    private final Downscale laneResolution;
+    private final Downscale startLightResolution;
+    private final EdgePreprocessor preprocessor;
+    private final boolean splitFields;
+    private final boolean tracking;
+    private final boolean slidingWindows;
+    private final boolean autoTune;
+    private final boolean startLightWatch;
+    private final boolean startLightRegionAuto;
+
+    private StreamOptions(JsonObject config) {
+        JsonObject json = config != null ? config : new JsonObject();
+
+        String mode = json.getString("capture");
+        captureMode = mode != null ? ImageFetcher.CaptureMode.valueOf(mode.toUpperCase()) : ImageFetcher.CaptureMode.GRAB;
+        sourceType = json.getString("sourceType", "").toLowerCase();
+        decodeScale = json.getInteger("decodeScale", 1);
+        replaySpeed = "replay".equals(sourceType) ? ReplaySource.speed(json.getValue("replay", "realtime").toString()) : 1;
+        interval = json.getLong("interval");
+        minInterval = json.getLong("minInterval");
+
+        JsonObject resolution = json.getJsonObject("resolution");
+        laneResolution = resolution != null ? Downscale.parse(resolution.getString("lane"), resolution.getString("method")) : Downscale.NONE;
+        startLightResolution = resolution != null ? Downscale.parse(resolution.getString("startLight"), resolution.getString("method")) : Downscale.NONE;
+
+        preprocessor = preprocessor(json.getJsonObject("preprocess"));
+        splitFields = json.getBoolean("splitFields", false);
+        tracking = json.getBoolean("tracking", false);
+        slidingWindows = "slidingWindow".equalsIgnoreCase(json.getString("lineDetector", "hough"));
+        autoTune = json.getBoolean("autoTune", false);
+        startLightWatch = "watch".equalsIgnoreCase(json.getString("startLight", ""));
+        startLightRegionAuto = "auto".equalsIgnoreCase(json.getString("startLightRegion", "fixed"));
+    }
+
+    /**
+     * @param config the stream config, or null for the defaults.
+     */
+    public static StreamOptions of(JsonObject config) {
+        return new StreamOptions(config);
+    }
+
+    /**
+     * "capture": "read" or "grab" (the default), see {@link ImageFetcher.CaptureMode}.
+     */
+    public ImageFetcher.CaptureMode getCaptureMode() {
+        return captureMode;
+    }
+
+    /**
+     * "sourceType": "mjpeg" for the Pi camera stream (decoded at 1/"decodeScale"), "replay" for recorded files at the
+     * "replay" speed ("realtime", "max" or a multiple like "4x"). Defaults to OpenCV's VideoCapture.
+     */
+    public Function<String, FrameSource> getFrameSource() {
+        if ("mjpeg".equals(sourceType)) {
+            int decodeScale = this.decodeScale;
+            return source -> new MjpegSource(source, decodeScale);
+        }
+
+        if ("replay".equals(sourceType)) {
+            double speed = replaySpeed;
+            return source -> new ReplaySource(source, speed);
+        }
+
+        return VideoCaptureSource::new;
+    }
+
+    /**
+     * @return the frame source and its settings as text, equal for options that create the same kind of source.
+     */
+    public String getFrameSourceName() {
+        return (sourceType.isEmpty() ? "videocapture" : sourceType)
+                + ("mjpeg".equals(sourceType) && decodeScale > 1 ? " 1/" + decodeScale : "")
+                + ("replay".equals(sourceType) ? (isLossless() ? " max" : " " + replaySpeed + "x") : "");
+    }
+
+    /**
+     * @return true for a replay at maximum speed, where every frame is processed exactly once and in order.
+     */
+    public boolean isLossless() {
+        return "replay".equals(sourceType) && replaySpeed == ReplaySource.MAX_SPEED;
+    }
+
+    /**
+     * "interval" is the ceiling (slowest rate), "minInterval" the floor (fastest rate), the governor picks the
+     * fastest rate in between that the pipeline keeps up with.
+     */
+    public DetectionRateGovernor governor(long defaultMinInterval, long defaultInterval) {
+        long max = interval != null ? interval : defaultInterval;
+        long min = minInterval != null ? minInterval : Math.min(defaultMinInterval, max);
+        return new DetectionRateGovernor(min, max);
+    }
+
+    /**
+     * Processing resolution of lane detection, e.g. "resolution": {"lane": "half", "method": "area"}.
+     */
+    public Downscale getLaneResolution() {
+        return laneResolution;
+    }
+
+    /**
+     * Processing resolution of start light detection, e.g. "resolution": {"startLight": "full"}.
+     */
+    public Downscale getStartLightResolution() {
+        return startLightResolution;
+    }
+
+    /**
+     * Edge detection input, e.g. "preprocess": {"channel": "gray", "blur": 3}; the channel is one of "color" (the
+     * default, no conversion), "gray", "value", "lightness" or "saturation".
+     */
+    public EdgePreprocessor getPreprocessor() {
+        return preprocessor;
+    }
+
+    /**
+     * "splitFields": true detects the left and right half of the road in parallel.
+     */
+    public boolean isSplitFields() {
+        return splitFields;
+    }
+
+    /**
+     * "tracking": true follows the lane over frames and only searches the predicted lane while it is tracked.
+     */
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * "lineDetector": "slidingWindow" finds the lane boundaries with sliding windows on the bird's-eye view instead
+     * of the Hough transform ("hough", the default).
+     */
+    public boolean isSlidingWindows() {
+        return slidingWindows;
+    }
+
+    /**
+     * "autoTune": true derives the Canny thresholds from the light in each frame and keeps the number of Hough lines
+     * in a band, starting from the configured thresholds.
+     */
+    public boolean isAutoTune() {
+        return autoTune;
+    }
+
+    /**
+     * "startLight": "watch" runs start light detection on every captured frame instead of a sample every interval.
+     */
+    public boolean isStartLightWatch() {
+        return startLightWatch;
+    }
+
+    /**
+     * "startLightRegion": "auto" finds the start light in the frame and follows it, instead of the fixed region.
+     */
+    public boolean isStartLightRegionAuto() {
+        return startLightRegionAuto;
+    }
+
+    private static EdgePreprocessor preprocessor(JsonObject preprocess) {
+        if (preprocess == null) {
+            return EdgePreprocessor.NONE;
+        }
+
+        EdgePreprocessor.Config preprocessing = new EdgePreprocessor.Config();
+        preprocessing.setChannel(EdgePreprocessor.Channel.valueOf(preprocess.getString("channel", "color").toUpperCase()));
+        preprocessing.setBlur(preprocess.getInteger("blur", 0));
+        return new EdgePreprocessor(preprocessing);
+    }
+
+    @Override
+    public String toString() {
+        List<String> options = new ArrayList<>();
+        options.add("capture " + captureMode.name().toLowerCase());
+        options.add("source " + getFrameSourceName());
+        options.add("resolution lane " + laneResolution + ", start light " + startLightResolution);
+        options.add("preprocess " + preprocessor);
+        if (splitFields) {
+            options.add("split fields");
+        }
+        if (tracking) {
+            options.add("tracking");
+        }
+        if (slidingWindows) {
+            options.add("sliding windows");
+        }
+        if (autoTune) {
+            options.add("auto tune");
+        }
+        if (startLightWatch) {
+            options.add("start light watch");
+        }
+        if (startLightRegionAuto) {
+            options.add("start light region auto");
+        }
+        return String.join(", ", options);
+    }
+}
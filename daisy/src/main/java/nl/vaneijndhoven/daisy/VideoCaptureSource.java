@@ -0,0 +1,33 @@
+package nl.vaneijndhoven.daisy;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+public class VideoCaptureSource implements FrameSource {
+
+    private final VideoCapture capture = new VideoCapture();
+
+    public VideoCaptureSource(String source) {
+        capture.open(source);
+    }
+
+    @Override
+    public boolean grab() {
+        return capture.grab();
+    }
+
+    @Override
+    public boolean retrieve(Mat frame) {
+        return capture.retrieve(frame);
+    }
+
+    @Override
+    public void release() {
+        capture.release();
+    }
+
+    @Override
+    public String toString() {
+        return "VideoCapture";
+    }
+}
@@ -164,6 +164,20 @@ public class Line {
         return reference.getY() <= point.getY();
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Line line = (Line) o;
+        return Double.compare(point1.getX(), line.point1.getX()) == 0 && Double.compare(point1.getY(), line.point1.getY()) == 0
+                && Double.compare(point2.getX(), line.point2.getX()) == 0 && Double.compare(point2.getY(), line.point2.getY()) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(point1.getX(), point1.getY(), point2.getX(), point2.getY());
+    }
+
     @Override
     public String toString() {
         return point1 + " - " + point2;
@@ -8,6 +8,7 @@ public class DenoiseByBlur {
 
     private int kWidth = 3;
     private int kHeight = 3;
+    private Size kernel = new Size(kWidth, kHeight);
 
     public DenoiseByBlur() {}
 
@@ -15,11 +16,19 @@ public class DenoiseByBlur {
         this();
         this.kWidth = kWidth;
         this.kHeight = kHeight;
+        this.kernel = new Size(kWidth, kHeight);
     }
 
     public Mat denoise(Mat image) {
-        Imgproc.blur(image, image, new Size(kWidth, kHeight));
-        return image;
+        return denoise(image, image);
+    }
+
+    /**
+     * Blurs into the given output, which may be the image itself.
+     */
+    public Mat denoise(Mat image, Mat output) {
+        Imgproc.blur(image, output, kernel);
+        return output;
     }
 
 }
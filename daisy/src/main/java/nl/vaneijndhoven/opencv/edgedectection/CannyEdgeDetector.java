@@ -36,9 +36,18 @@ public class CannyEdgeDetector implements EdgeDetector {
         return this;
     }
 
+    public void setThresholds(double threshold1, double threshold2) {
+        this.threshold1 = threshold1;
+        this.threshold2 = threshold2;
+    }
+
     @Override
     public Mat detect(Mat image) {
-        Mat imgEdges = new Mat();
+        return detect(image, new Mat());
+    }
+
+    @Override
+    public Mat detect(Mat image, Mat imgEdges) {
         Imgproc.Canny(image, imgEdges, threshold1, threshold2, apertureSize, l2gradient);
         collector.ifPresent(coll -> coll.edges(imgEdges));
         return imgEdges;
@@ -6,4 +6,11 @@ public interface EdgeDetector {
 
     Mat detect(Mat image);
 
+    default Mat detect(Mat image, Mat output) {
+        Mat edges = detect(image);
+        edges.copyTo(output);
+        edges.release();
+        return output;
+    }
+
 }
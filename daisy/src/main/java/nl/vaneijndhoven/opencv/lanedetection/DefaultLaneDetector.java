@@ -7,17 +7,29 @@ import nl.vaneijndhoven.geometry.Line;
 import nl.vaneijndhoven.objects.Lane;
 import nl.vaneijndhoven.objects.lane.LaneLeftBoundary;
 import nl.vaneijndhoven.objects.lane.LaneRightBoundary;
+import nl.vaneijndhoven.opencv.linedetection.LineClassifier;
 
 import java.util.Collection;
 import java.util.Optional;
 
 public class DefaultLaneDetector implements LaneDetector {
 
+    private final LaneLeftBoundary left = new LaneLeftBoundary();
+    private final LaneRightBoundary right = new LaneRightBoundary();
+
     @Override
     public Lane detect(Collection<Line> lines, ViewPort viewPort) {
-        Optional<Line> leftLine = new LaneLeftBoundary().boundary(lines);
-        Optional<Line> rightLine = new LaneRightBoundary().boundary(lines);
+        return lane(left.boundary(lines), right.boundary(lines), viewPort);
+    }
+
+    /**
+     * Lane from lines that have already been classified.
+     */
+    public Lane detect(LineClassifier classified, ViewPort viewPort) {
+        return lane(classified.left(), classified.right(), viewPort);
+    }
 
+    private Lane lane(Optional<Line> leftLine, Optional<Line> rightLine, ViewPort viewPort) {
         final Line bottom = new Line(new Point(0d, viewPort.getHeight()), new Point(viewPort.getWidth(), viewPort.getHeight()));
         final Line horizon = new Line(new Point(0d, 0d), new Point((double) viewPort.getWidth(), 0d));
 
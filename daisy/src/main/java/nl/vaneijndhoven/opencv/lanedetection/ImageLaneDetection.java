@@ -1,93 +1,276 @@
 package nl.vaneijndhoven.opencv.lanedetection;
 
-import nl.vaneijndhoven.daisy.Daisy;
 import nl.vaneijndhoven.geometry.Line;
 import nl.vaneijndhoven.geometry.Point;
-import nl.vaneijndhoven.geometry.Polygon;
 import nl.vaneijndhoven.navigation.plot.LaneOrientation;
 import nl.vaneijndhoven.navigation.plot.StoppingZoneOrientation;
 import nl.vaneijndhoven.objects.*;
 import nl.vaneijndhoven.opencv.edgedectection.CannyEdgeDetector;
+import nl.vaneijndhoven.opencv.edgedectection.EdgePreprocessor;
+import nl.vaneijndhoven.opencv.linedetection.LineBuffer;
+import nl.vaneijndhoven.opencv.linedetection.LineClassifier;
+import nl.vaneijndhoven.opencv.linedetection.LineDetector;
 import nl.vaneijndhoven.opencv.linedetection.ProbabilisticHoughLinesLineDetector;
+import nl.vaneijndhoven.opencv.linedetection.SlidingWindowLineDetector;
 import nl.vaneijndhoven.opencv.objectdetection.LineExtractor;
-import nl.vaneijndhoven.opencv.perspective.TransformToBirdsEye;
+import nl.vaneijndhoven.opencv.perspective.BirdsEyeView;
+import nl.vaneijndhoven.opencv.roi.LeftField;
 import nl.vaneijndhoven.opencv.roi.RegionOfInterest;
+import nl.vaneijndhoven.opencv.roi.RightField;
 import nl.vaneijndhoven.opencv.stopzonedetection.DefaultStoppingZoneDetector;
+import nl.vaneijndhoven.opencv.tools.Downscale;
 import nl.vaneijndhoven.opencv.tools.ImageCollector;
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import nl.vaneijndhoven.opencv.tools.StageTimings;
+import nl.vaneijndhoven.opencv.tools.StageTimings.Stage;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static java.util.Arrays.asList;
 import static nl.vaneijndhoven.opencv.mapper.PointMapper.toPoint;
 
+/**
+ * Lane detection engine, meant to live as long as the pipeline it serves and to be used by one thread at a time.
+ * The viewport is computed once per image size, the edge and line detectors once per config; per frame only the
+ * image collector is rebound. The bird's-eye view is not needed for detection, debug consumers derive it from the
+ * camera frame on demand through {@link #birdsEyeView()}.
+ */
 public class ImageLaneDetection {
 
-    private final CannyEdgeDetector.Config cannyConfig;
-    private final ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig;
+    private static final RegionOfInterest REGION = new RegionOfInterest(0, 0.45, 1, 0.55);
+    private static final RegionOfInterest LEFT = new LeftField(0.5);
+    private static final RegionOfInterest RIGHT = new RightField(0.5);
+    private static final ForkJoinPool FIELDS = ForkJoinPool.commonPool();
+
+    private volatile CannyEdgeDetector.Config cannyConfig;
+    private volatile ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig;
+    private volatile Downscale downscale;
+    private volatile EdgePreprocessor preprocessor = EdgePreprocessor.NONE;
+    private volatile boolean splitFields = false;
+    private volatile boolean slidingWindows = false;
+    private volatile boolean tracking = false;
+    private volatile boolean autoTune = false;
+    private volatile boolean drawing = true;
+    private final MatPool pool;
+    private volatile StageTimings timings = StageTimings.NONE;
+
+    private final DefaultLaneDetector laneDetector = new DefaultLaneDetector();
+    private final DefaultStoppingZoneDetector stoppingZoneDetector = new DefaultStoppingZoneDetector();
+
+    private final LaneTracker tracker = new LaneTracker();
+    private final ParameterTuner tuner = new ParameterTuner();
+    private final LineBuffer lines = new LineBuffer();
+    private final LineBuffer leftLines = new LineBuffer();
+    private final LineBuffer rightLines = new LineBuffer();
+    private final LineClassifier classifier = new LineClassifier();
+    private Geometry geometry;
+    private Detectors detectors;
 
     public ImageLaneDetection(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig) {
+        this(cannyConfig, lineDetectorConfig, new MatPool());
+    }
+
+    public ImageLaneDetection(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig, MatPool pool) {
+        this(cannyConfig, lineDetectorConfig, pool, Downscale.NONE);
+    }
+
+    /**
+     * @param downscale resolution for edge and line detection, found lines are scaled back to source coordinates.
+     */
+    public ImageLaneDetection(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig, MatPool pool, Downscale downscale) {
         this.cannyConfig = cannyConfig;
         this.lineDetectorConfig = lineDetectorConfig;
+        this.pool = pool;
+        this.downscale = downscale;
+    }
+
+    /**
+     * Config changes are picked up at the next frame, detectors are only rebuilt for a different config instance.
+     */
+    public void setCannyConfig(CannyEdgeDetector.Config cannyConfig) {
+        this.cannyConfig = cannyConfig;
+    }
+
+    public void setLineDetectorConfig(ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig) {
+        this.lineDetectorConfig = lineDetectorConfig;
+    }
+
+    /**
+     * Replaces both configs at once, so the next frame never combines the Canny config of one update with the Hough
+     * config of another.
+     */
+    public void setConfig(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig) {
+        synchronized (this) {
+            this.cannyConfig = cannyConfig;
+            this.lineDetectorConfig = lineDetectorConfig;
+        }
+    }
+
+    public void setDownscale(Downscale downscale) {
+        this.downscale = downscale;
+    }
+
+    /**
+     * Single channel conversion and denoising applied once to the (downscaled) region of interest, before edge
+     * detection on any of the paths.
+     */
+    public void setPreprocessor(EdgePreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    /**
+     * Detects edges and lines in the left and right field in parallel, looking for the left boundary in the left
+     * field and the right boundary in the right field only.
+     */
+    public void setSplitFields(boolean splitFields) {
+        this.splitFields = splitFields;
+    }
+
+    /**
+     * Finds the lane boundaries with {@link SlidingWindowLineDetector} instead of the Hough transform. It searches
+     * the whole image for both boundaries, so split fields are not used, and it finds no stopping zone lines.
+     */
+    public void setSlidingWindows(boolean slidingWindows) {
+        this.slidingWindows = slidingWindows;
+    }
+
+    /**
+     * Tracks the lane over frames, limiting the search to the predicted lane while it is tracked and smoothing the
+     * reported boundaries, see {@link LaneTracker}.
+     */
+    public void setTracking(boolean tracking) {
+        this.tracking = tracking;
+    }
+
+    /**
+     * Tunes the Canny thresholds to the light and the Hough threshold to the number of lines found, see
+     * {@link ParameterTuner}. A config update restarts the tuning from the new config.
+     */
+    public void setAutoTune(boolean autoTune) {
+        this.autoTune = autoTune;
+    }
+
+    /**
+     * Draws the detected lane onto the region of interest of the input image and hands it to the collector. Off,
+     * the input image is only read, so a shared frame can be detected on without a copy.
+     */
+    public void setDrawing(boolean drawing) {
+        this.drawing = drawing;
+    }
+
+    /**
+     * Records the processing time of each pipeline stage into the given timings.
+     */
+    public void setTimings(StageTimings timings) {
+        this.timings = timings;
     }
 
     public Map<String, Object> detectLane(Mat original, ImageCollector imageCollector) {
+        try (MatPool.Scope scope = pool.scope()) {
+            return detectLane(original, imageCollector, scope);
+        }
+    }
+
+    public static BirdsEyeView birdsEyeView() {
+        return new BirdsEyeView(REGION);
+    }
+
+    private Map<String, Object> detectLane(Mat original, ImageCollector imageCollector, MatPool.Scope scope) {
         if (original.empty()) {
             System.err.println("detectLane: empty mat?");
         }
 
-        Mat image = new RegionOfInterest(0, 0.45, 1, 0.55).region(original);
-        Size imageSize = image.size();
-        ViewPort viewPort = new ViewPort(new Point(0, 0), imageSize.width, imageSize.height);
+        StageTimings timings = this.timings;
+        long t = timings.start();
 
-        Polygon imagePolygon = new Polygon(
-                new Point(0.45 * imageSize.width, 0.1 * imageSize.height),
-                new Point(0.55 * imageSize.width, 0.1 * imageSize.height),
-                new Point(0.9 * imageSize.width, imageSize.height),
-                new Point(0.1 * imageSize.width, imageSize.height));
+        Mat image = scope.track(REGION.region(original));
+        ViewPort viewPort = geometry(image.size()).viewPort;
 
-        Polygon worldPolygon = new Polygon(
-                new Point(0.3 * imageSize.width, 0),
-                new Point(0.7 * imageSize.width, 0),
-                new Point(0.7 * imageSize.width, imageSize.height),
-                new Point(0.3 * imageSize.width, imageSize.height));
+        Detectors detectors = detectors(imageCollector);
+        Downscale downscale = detectors.downscale;
+        boolean tracking = this.tracking;
+        boolean autoTune = this.autoTune;
+        t = timings.lap(Stage.ROI, t);
 
-        Daisy.BIRDS_EYE = new TransformToBirdsEye(imagePolygon, worldPolygon).transform(image);
+        Mat downscaled = downscale.apply(image, scope);
+        t = timings.lap(Stage.DOWNSCALE, t);
 
-        LineExtractor lineExtractor = new LineExtractor(
-                new CannyEdgeDetector(cannyConfig).withImageCollector(imageCollector),
-                new ProbabilisticHoughLinesLineDetector(lineDetectorConfig).withImageCollector(imageCollector)
-        );
+        Mat scaled = preprocessor.apply(downscaled, scope);
+        if (autoTune) {
+            tuner.tuneEdges(scaled, scope);
+            detectors.tune(tuner.getThreshold1(), tuner.getThreshold2(), tuner.getHoughThreshold());
+        }
+        Mat mask = null;
+        if (tracking) {
+            tracker.predict();
+            mask = tracker.mask(scaled.size(), 1d / downscale.getFactor(), scope);
+        }
+        t = timings.lap(Stage.PREPROCESS, t);
 
-        Collection<Line> lines = lineExtractor.extract(image);
+        if (mask != null) {
+            detectTracked(scaled, mask, detectors, imageCollector, scope, timings);
+            t = timings.start();
+            lines.scale(downscale.getFactor());
+            classifier.classify(lines);
+        } else if (splitFields && !detectors.slidingWindows) {
+            Mat edges = scope.lease(scaled.size(), CvType.CV_8UC1);
 
-        Lane lane = new DefaultLaneDetector().detect(lines, viewPort);
-        StoppingZone stoppingZone = new DefaultStoppingZoneDetector().detect(lines);
+            // the right field is forked to the pool while this thread does the left field, the fields overlap so only
+            // the fork/join as a whole is timed
+            ForkJoinTask<?> right = FIELDS.submit(() -> detectField(scaled, edges, RIGHT, detectors, rightLines));
+            detectField(scaled, edges, LEFT, detectors, leftLines);
+            right.join();
+            imageCollector.edges(edges);
+            t = timings.lap(Stage.FIELDS, t);
+
+            lines.clear();
+            lines.addAll(leftLines);
+            lines.addAll(rightLines);
+            lines.scale(downscale.getFactor());
+            classifier.classify(lines, leftLines.size());
+        } else {
+            detectors.lineExtractor.extract(scaled, scope, lines, timings);
+            t = timings.start();
+            lines.scale(downscale.getFactor());
+            classifier.classify(lines);
+        }
+
+        if (autoTune) {
+            tuner.tuneLines(lines.size());
+        }
+        t = timings.lap(Stage.CLASSIFY, t);
+
+        // one pass over the lines for all lane and stopping zone boundaries
+        Lane lane = laneDetector.detect(classifier, viewPort);
+
+        if (tracking) {
+            lane = tracker.update(lane, viewPort);
+        } else if (tracker.isLocked()) {
+            tracker.reset();
+        }
+
+        StoppingZone stoppingZone = stoppingZoneDetector.detect(classifier);
+        t = timings.lap(Stage.LANE, t);
 
         LaneOrientation laneOrientation = new LaneOrientation(lane, viewPort);
         StoppingZoneOrientation stoppingZoneOrientation = new StoppingZoneOrientation(stoppingZone, lane, viewPort);
 
         Optional<Line> middle = laneOrientation.determineLaneMiddle();
 
-        lane.getLeftBoundary().ifPresent(boundary -> drawLinesToImage(image, asList(boundary), new Scalar(0, 255, 0)));
-        lane.getRightBoundary().ifPresent(boundary -> drawLinesToImage(image, asList(boundary), new Scalar(255, 128, 0)));
-        middle.ifPresent(line -> drawLinesToImage(image, asList(line), new Scalar(0, 0, 255)));
-
         double distanceToStoppingZone = -1;
         double distanceToStoppingZoneEnd = -1;
         if (stoppingZone.getEntrance() != null) {
-            stoppingZone.getEntrance().ifPresent(entrance -> drawLinesToImage(image, asList(entrance), new Scalar(255, 255, 0)));
             distanceToStoppingZone = stoppingZoneOrientation.determineDistanceToStoppingZone();
         }
 
         if (stoppingZone.getExit() != null) {
-            stoppingZone.getExit().ifPresent(exit -> drawLinesToImage(image, asList(exit), new Scalar(0, 255, 255)));
             distanceToStoppingZoneEnd = stoppingZoneOrientation.determineDistanceToStoppingZoneEnd();
         }
 
-        imageCollector.lines(image);
-
         double angle = laneOrientation.determineCurrentAngle();
 
         double distanceMiddle = laneOrientation.determineDistanceToMiddle();
@@ -95,6 +278,24 @@ public class ImageLaneDetection {
         double distanceRight = laneOrientation.distanceFromRightBoundary();
 
         double courseRelativeToHorizon = laneOrientation.determineCourseRelativeToHorizon();
+        t = timings.lap(Stage.ORIENTATION, t);
+
+        if (drawing) {
+            lane.getLeftBoundary().ifPresent(boundary -> drawLinesToImage(image, asList(boundary), new Scalar(0, 255, 0)));
+            lane.getRightBoundary().ifPresent(boundary -> drawLinesToImage(image, asList(boundary), new Scalar(255, 128, 0)));
+            middle.ifPresent(line -> drawLinesToImage(image, asList(line), new Scalar(0, 0, 255)));
+
+            if (stoppingZone.getEntrance() != null) {
+                stoppingZone.getEntrance().ifPresent(entrance -> drawLinesToImage(image, asList(entrance), new Scalar(255, 255, 0)));
+            }
+
+            if (stoppingZone.getExit() != null) {
+                stoppingZone.getExit().ifPresent(exit -> drawLinesToImage(image, asList(exit), new Scalar(0, 255, 255)));
+            }
+
+            imageCollector.lines(image);
+        }
+        timings.lap(Stage.DRAW, t);
 
         Map result = new HashMap<>();
         result.put("lane", lane);
@@ -105,6 +306,9 @@ public class ImageLaneDetection {
         putIfNumber("distanceToStoppingZone", distanceToStoppingZone, result);
         putIfNumber("distanceToStoppingZoneEnd", distanceToStoppingZoneEnd, result);
         putIfNumber("courseRelativeToHorizon", courseRelativeToHorizon, result);
+        if (autoTune) {
+            result.put("tuning", tuner.toMap());
+        }
 
         return result;
     }
@@ -121,4 +325,123 @@ public class ImageLaneDetection {
         lines.stream().filter(Objects::nonNull).forEach(line -> Imgproc.line(image, toPoint(line.getPoint1()), toPoint(line.getPoint2()), color, 4));
     }
 
-}
\ No newline at end of file
+    /**
+     * Edge and line detection on one field of the image, the edges are written into the matching part of the edges
+     * image. Runs concurrently for both fields, so it must only use the shared (collector-less) field detectors.
+     */
+    private static void detectField(Mat image, Mat edges, RegionOfInterest field, Detectors detectors, LineBuffer lines) {
+        Rect roi = field.roi(image.size());
+        Mat fieldImage = new Mat(image, roi);
+        Mat fieldEdges = new Mat(edges, roi);
+        try {
+            detectors.fieldEdgeDetector.detect(fieldImage, fieldEdges);
+            detectors.fieldLineDetector.detect(fieldEdges, lines);
+            lines.translate(roi.x, roi.y);
+        } finally {
+            fieldImage.release();
+            fieldEdges.release();
+        }
+    }
+
+    /**
+     * Edge detection on the windows around the predicted boundaries only, line detection on the edges inside the
+     * bands.
+     */
+    private void detectTracked(Mat image, Mat mask, Detectors detectors, ImageCollector imageCollector, MatPool.Scope scope, StageTimings timings) {
+        long t = timings.start();
+        Mat edges = scope.lease(image.size(), CvType.CV_8UC1);
+        edges.setTo(Scalar.all(0));
+
+        for (Rect window : tracker.windows(image.size(), 1d / detectors.downscale.getFactor())) {
+            Mat windowImage = new Mat(image, window);
+            Mat windowEdges = new Mat(edges, window);
+            try {
+                detectors.fieldEdgeDetector.detect(windowImage, windowEdges);
+            } finally {
+                windowImage.release();
+                windowEdges.release();
+            }
+        }
+
+        Core.bitwise_and(edges, mask, edges);
+        imageCollector.edges(edges);
+        t = timings.lap(Stage.CANNY, t);
+        detectors.lineDetector.detect(edges, lines);
+        timings.lap(Stage.HOUGH, t);
+    }
+
+    private Geometry geometry(Size imageSize) {
+        if (geometry == null || !geometry.size.equals(imageSize)) {
+            geometry = new Geometry(imageSize);
+        }
+        return geometry;
+    }
+
+    private Detectors detectors(ImageCollector imageCollector) {
+        CannyEdgeDetector.Config canny;
+        ProbabilisticHoughLinesLineDetector.Config hough;
+        synchronized (this) {
+            canny = cannyConfig;
+            hough = lineDetectorConfig;
+        }
+        Downscale scale = downscale;
+        boolean windows = slidingWindows;
+
+        if (detectors == null || detectors.cannyConfig != canny || detectors.lineDetectorConfig != hough || detectors.downscale != scale || detectors.slidingWindows != windows) {
+            detectors = new Detectors(canny, hough, scale, windows);
+            tuner.reset(canny.getThreshold1(), canny.getThreshold2(), detectors.houghDetector.getThreshold());
+        }
+        detectors.edgeDetector.withImageCollector(imageCollector);
+        detectors.houghDetector.withImageCollector(imageCollector);
+        return detectors;
+    }
+
+    private static class Geometry {
+
+        private final Size size;
+        private final ViewPort viewPort;
+
+        private Geometry(Size imageSize) {
+            this.size = imageSize;
+            this.viewPort = new ViewPort(new Point(0, 0), imageSize.width, imageSize.height);
+        }
+    }
+
+    private static class Detectors {
+
+        private final CannyEdgeDetector.Config cannyConfig;
+        private final ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig;
+        private final Downscale downscale;
+        private final boolean slidingWindows;
+        private final CannyEdgeDetector edgeDetector;
+        private final ProbabilisticHoughLinesLineDetector houghDetector;
+        private final LineDetector lineDetector;
+        private final LineExtractor lineExtractor;
+        private final CannyEdgeDetector fieldEdgeDetector;
+        private final ProbabilisticHoughLinesLineDetector fieldLineDetector;
+
+        private Detectors(CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig, Downscale downscale, boolean slidingWindows) {
+            this.cannyConfig = cannyConfig;
+            this.lineDetectorConfig = lineDetectorConfig;
+            this.downscale = downscale;
+            this.slidingWindows = slidingWindows;
+            this.edgeDetector = new CannyEdgeDetector(cannyConfig);
+            this.houghDetector = new ProbabilisticHoughLinesLineDetector(lineDetectorConfig.scaled(1d / downscale.getFactor()));
+            this.lineDetector = slidingWindows ? new SlidingWindowLineDetector() : houghDetector;
+            this.lineExtractor = new LineExtractor(edgeDetector, lineDetector);
+            this.fieldEdgeDetector = new CannyEdgeDetector(cannyConfig);
+            this.fieldLineDetector = new ProbabilisticHoughLinesLineDetector(lineDetectorConfig.scaled(1d / downscale.getFactor()));
+        }
+
+        /**
+         * Applies tuned thresholds to all detectors, the Hough threshold is in downscaled image votes.
+         */
+        private void tune(double threshold1, double threshold2, int houghThreshold) {
+            edgeDetector.setThresholds(threshold1, threshold2);
+            fieldEdgeDetector.setThresholds(threshold1, threshold2);
+            houghDetector.setThreshold(houghThreshold);
+            fieldLineDetector.setThreshold(houghThreshold);
+        }
+    }
+
+}
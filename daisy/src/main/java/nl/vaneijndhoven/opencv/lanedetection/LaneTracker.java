@@ -0,0 +1,237 @@
+package nl.vaneijndhoven.opencv.lanedetection;
+
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.objects.Lane;
+import nl.vaneijndhoven.objects.ViewPort;
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Tracks the lane boundaries over frames. Each boundary is described by its x coordinate at the top and at the
+ * bottom of the view port, both followed by a constant velocity Kalman filter. While both boundaries are tracked,
+ * edge and line detection is limited to a band around each predicted boundary: {@link #windows} are the parts of
+ * the image to run edge detection on, {@link #mask} keeps the edges inside the bands. Stopping zone lines cross both
+ * boundaries, so their pieces inside the bands are enough to find them. A boundary that is not found for a few
+ * frames is dropped, which falls back to searching the whole image. Not thread safe, one tracker per pipeline.
+ */
+public class LaneTracker {
+
+    private static final double DEFAULT_BAND = 30;
+    private static final int DEFAULT_MAX_MISSES = 3;
+    private static final int STRIPS = 8;
+
+    private final BoundaryTrack left;
+    private final BoundaryTrack right;
+    private final double band;
+
+    public LaneTracker() {
+        this(DEFAULT_BAND, DEFAULT_MAX_MISSES);
+    }
+
+    /**
+     * @param band half width in pixels of the band searched around a predicted boundary.
+     * @param maxMisses number of frames a boundary is predicted without being found before the track is dropped.
+     */
+    public LaneTracker(double band, int maxMisses) {
+        this.band = band;
+        this.left = new BoundaryTrack(maxMisses);
+        this.right = new BoundaryTrack(maxMisses);
+    }
+
+    public boolean isLocked() {
+        return left.isTracking() && right.isTracking();
+    }
+
+    /**
+     * Advances the tracks by one frame, call once per frame before {@link #mask} and {@link #update}.
+     */
+    public void predict() {
+        left.predict();
+        right.predict();
+    }
+
+    /**
+     * @param size size of the (downscaled) image that is searched.
+     * @param scale factor from view port to image coordinates.
+     * @return mask of the bands around the predicted boundaries, leased from the scope, or null to search the whole
+     * image.
+     */
+    public Mat mask(Size size, double scale, MatPool.Scope scope) {
+        if (!isLocked()) {
+            return null;
+        }
+
+        Mat mask = scope.lease(size, CvType.CV_8UC1);
+        mask.setTo(Scalar.all(0));
+        int thickness = (int) Math.ceil(2 * band * scale);
+        Imgproc.line(mask, new Point(left.bottom() * scale, size.height), new Point(left.top() * scale, 0), Scalar.all(255), thickness);
+        Imgproc.line(mask, new Point(right.bottom() * scale, size.height), new Point(right.top() * scale, 0), Scalar.all(255), thickness);
+        return mask;
+    }
+
+    /**
+     * The bands cut into horizontal strips, each strip bounded by a rectangle: edge detection on these rectangles
+     * covers the bands at a fraction of the cost of the whole image.
+     *
+     * @return the rectangles, empty when the whole image must be searched.
+     */
+    public List<Rect> windows(Size size, double scale) {
+        if (!isLocked()) {
+            return Collections.emptyList();
+        }
+
+        List<Rect> windows = new ArrayList<>(2 * STRIPS);
+        int width = (int) size.width;
+        int height = (int) size.height;
+        for (int strip = 0; strip < STRIPS; strip++) {
+            int y1 = strip * height / STRIPS;
+            int y2 = (strip + 1) * height / STRIPS;
+            windows.add(window(left, y1, y2, width, height, scale));
+            windows.add(window(right, y1, y2, width, height, scale));
+        }
+        windows.removeIf(window -> window.width <= 0 || window.height <= 0);
+        return windows;
+    }
+
+    private Rect window(BoundaryTrack track, int y1, int y2, int width, int height, double scale) {
+        // x of the predicted boundary at the top and bottom of the strip, widened by the band
+        double x1 = (track.top() + (track.bottom() - track.top()) * y1 / height) * scale;
+        double x2 = (track.top() + (track.bottom() - track.top()) * y2 / height) * scale;
+        int left = (int) Math.max(0, Math.floor(Math.min(x1, x2) - band * scale));
+        int right = (int) Math.min(width, Math.ceil(Math.max(x1, x2) + band * scale));
+        return new Rect(left, y1, right - left, y2 - y1);
+    }
+
+    /**
+     * Corrects the tracks with the detected lane.
+     *
+     * @return the tracked lane: filtered boundaries, predicted ones for boundaries missed in this frame.
+     */
+    public Lane update(Lane detected, ViewPort viewPort) {
+        double height = viewPort.getHeight();
+        return new Lane(
+                left.update(detected.getLeftBoundary(), height),
+                right.update(detected.getRightBoundary(), height));
+    }
+
+    public void reset() {
+        left.reset();
+        right.reset();
+    }
+
+    private static class BoundaryTrack {
+
+        private final int maxMisses;
+        private final Kalman top = new Kalman();
+        private final Kalman bottom = new Kalman();
+        private boolean tracking = false;
+        private int misses = 0;
+
+        private BoundaryTrack(int maxMisses) {
+            this.maxMisses = maxMisses;
+        }
+
+        private boolean isTracking() {
+            return tracking;
+        }
+
+        private double top() {
+            return top.position;
+        }
+
+        private double bottom() {
+            return bottom.position;
+        }
+
+        private void predict() {
+            if (tracking) {
+                top.predict();
+                bottom.predict();
+            }
+        }
+
+        private Optional<Line> update(Optional<Line> measured, double height) {
+            if (measured.isPresent()) {
+                // boundaries are stretched from the bottom to the top of the view port
+                Line line = measured.get();
+                double measuredTop = line.getPoint1().getY() < line.getPoint2().getY() ? line.getPoint1().getX() : line.getPoint2().getX();
+                double measuredBottom = line.getPoint1().getY() < line.getPoint2().getY() ? line.getPoint2().getX() : line.getPoint1().getX();
+
+                if (tracking) {
+                    top.correct(measuredTop);
+                    bottom.correct(measuredBottom);
+                } else {
+                    top.reset(measuredTop);
+                    bottom.reset(measuredBottom);
+                    tracking = true;
+                }
+                misses = 0;
+            } else if (!tracking || ++misses > maxMisses) {
+                reset();
+                return Optional.empty();
+            }
+
+            return Optional.of(new Line(new double[]{bottom.position, height, top.position, 0}));
+        }
+
+        private void reset() {
+            tracking = false;
+            misses = 0;
+        }
+    }
+
+    /**
+     * Constant velocity Kalman filter of one coordinate, one time step per frame.
+     */
+    private static class Kalman {
+
+        private static final double PROCESS_NOISE = 4;
+        private static final double MEASUREMENT_NOISE = 25;
+        private static final double INITIAL_VELOCITY_VARIANCE = 100;
+
+        private double position;
+        private double velocity;
+        private double p00;
+        private double p01;
+        private double p11;
+
+        private void reset(double measured) {
+            position = measured;
+            velocity = 0;
+            p00 = MEASUREMENT_NOISE;
+            p01 = 0;
+            p11 = INITIAL_VELOCITY_VARIANCE;
+        }
+
+        private void predict() {
+            position += velocity;
+            p00 += 2 * p01 + p11 + PROCESS_NOISE / 4;
+            p01 += p11 + PROCESS_NOISE / 2;
+            p11 += PROCESS_NOISE;
+        }
+
+        private void correct(double measured) {
+            double s = p00 + MEASUREMENT_NOISE;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            double innovation = measured - position;
+
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p11 -= k1 * p01;
+            p01 *= 1 - k0;
+            p00 *= 1 - k0;
+        }
+    }
+}
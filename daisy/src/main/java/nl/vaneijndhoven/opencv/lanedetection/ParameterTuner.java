@@ -0,0 +1,142 @@
+package nl.vaneijndhoven.opencv.lanedetection;
+
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Closed loop tuning of the detection parameters for changing light. The Canny thresholds follow the median
+ * intensity of the edge detection input (threshold1 = low * median, threshold2 = high * median, smoothed over frames),
+ * the Hough vote threshold is raised as long as more lines than the band allows are found and lowered while fewer are
+ * found, which bounds both the number of lines and the time spent on them. Starts from, and restarts at, the
+ * configured values whenever the config changes. Not thread safe, one tuner per pipeline.
+ */
+public class ParameterTuner {
+
+    private static final double DEFAULT_LOW = 1.0;
+    private static final double DEFAULT_HIGH = 3.0;
+    private static final double SMOOTHING = 0.2;
+    private static final int DEFAULT_MIN_LINES = 4;
+    private static final int DEFAULT_MAX_LINES = 40;
+    private static final double RAISE = 1.2;
+    private static final double LOWER = 0.9;
+    private static final int MIN_THRESHOLD = 2;
+    private static final int MAX_THRESHOLD = 500;
+
+    private final double low;
+    private final double high;
+    private final int minLines;
+    private final int maxLines;
+
+    // calcHist arguments, reused from frame to frame
+    private final MatOfInt channels = new MatOfInt(0);
+    private final MatOfInt histogramSize = new MatOfInt(256);
+    private final MatOfFloat ranges = new MatOfFloat(0f, 256f);
+    private final Mat noMask = new Mat();
+    private final Mat histogram = new Mat();
+    private final float[] bins = new float[256];
+
+    private double median = -1;
+    private double threshold1;
+    private double threshold2;
+    private int houghThreshold;
+
+    public ParameterTuner() {
+        this(DEFAULT_LOW, DEFAULT_HIGH, DEFAULT_MIN_LINES, DEFAULT_MAX_LINES);
+    }
+
+    /**
+     * @param low Canny threshold1 as a multiple of the median intensity.
+     * @param high Canny threshold2 as a multiple of the median intensity.
+     * @param minLines fewest lines per frame before the Hough threshold is lowered.
+     * @param maxLines most lines per frame before the Hough threshold is raised.
+     */
+    public ParameterTuner(double low, double high, int minLines, int maxLines) {
+        this.low = low;
+        this.high = high;
+        this.minLines = minLines;
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * Restarts from the configured values, call when the detectors are rebuilt for a new config.
+     */
+    public void reset(double threshold1, double threshold2, int houghThreshold) {
+        this.median = -1;
+        this.threshold1 = threshold1;
+        this.threshold2 = threshold2;
+        this.houghThreshold = houghThreshold;
+    }
+
+    /**
+     * Derives the Canny thresholds from the median intensity of the image. A single channel image is used as is, a
+     * color image is converted to gray first.
+     */
+    public void tuneEdges(Mat image, MatPool.Scope scope) {
+        Mat gray = image;
+        if (image.channels() > 1) {
+            gray = scope.lease(image.size(), CvType.CV_8UC1);
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        }
+
+        Imgproc.calcHist(Collections.singletonList(gray), channels, noMask, histogram, histogramSize, ranges);
+        histogram.get(0, 0, bins);
+
+        double frameMedian = median(bins, gray.total());
+        median = median < 0 ? frameMedian : median + SMOOTHING * (frameMedian - median);
+
+        threshold1 = Math.round(low * median);
+        threshold2 = Math.round(high * median);
+    }
+
+    /**
+     * Feeds back the number of lines found in the last frame.
+     */
+    public void tuneLines(int lines) {
+        if (lines > maxLines) {
+            houghThreshold = Math.min(MAX_THRESHOLD, Math.max(houghThreshold + 1, (int) Math.ceil(houghThreshold * RAISE)));
+        } else if (lines < minLines) {
+            houghThreshold = Math.max(MIN_THRESHOLD, Math.min(houghThreshold - 1, (int) Math.floor(houghThreshold * LOWER)));
+        }
+    }
+
+    public double getThreshold1() {
+        return threshold1;
+    }
+
+    public double getThreshold2() {
+        return threshold2;
+    }
+
+    public int getHoughThreshold() {
+        return houghThreshold;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("median", median);
+        map.put("threshold1", threshold1);
+        map.put("threshold2", threshold2);
+        map.put("houghThreshold", houghThreshold);
+        return map;
+    }
+
+    private static double median(float[] bins, long total) {
+        double half = total / 2d;
+        double count = 0;
+        for (int value = 0; value < bins.length; value++) {
+            count += bins[value];
+            if (count >= half) {
+                return value;
+            }
+        }
+        return bins.length - 1;
+    }
+}
@@ -0,0 +1,199 @@
+package nl.vaneijndhoven.opencv.linedetection;
+
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.geometry.Point;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Line segments packed in primitive arrays, with angle, length and bottom-most point computed once when a line is
+ * added. Filled from the output of the Hough transform with one bulk copy; meant to be reused from frame to frame,
+ * so the arrays only grow until they fit the busiest frame. {@link Line} objects are only created for the lines
+ * that are picked as a result. Not thread safe.
+ */
+public class LineBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Mat mat;
+    private int[] raw = new int[0];
+
+    private int size = 0;
+    private int[] coordinates = new int[4 * INITIAL_CAPACITY];
+    private float[] angles = new float[INITIAL_CAPACITY];
+    private float[] lengths = new float[INITIAL_CAPACITY];
+
+    /**
+     * @return native buffer for the Hough transform to write into, see {@link #load()}. Created on first use, a
+     * buffer that is only filled from Java needs no native memory.
+     */
+    Mat mat() {
+        if (mat == null) {
+            mat = new Mat();
+        }
+        return mat;
+    }
+
+    /**
+     * Replaces the contents with the lines in the native buffer (CV_32SC4, one line per row).
+     */
+    void load() {
+        clear();
+        int count = mat().rows();
+        if (count == 0) {
+            return;
+        }
+
+        if (raw.length < 4 * count) {
+            raw = new int[4 * count];
+        }
+        mat.get(0, 0, raw);
+
+        for (int i = 0; i < count; i++) {
+            add(raw[4 * i], raw[4 * i + 1], raw[4 * i + 2], raw[4 * i + 3]);
+        }
+    }
+
+    public void add(int x1, int y1, int x2, int y2) {
+        ensureCapacity(size + 1);
+        int offset = 4 * size;
+        coordinates[offset] = x1;
+        coordinates[offset + 1] = y1;
+        coordinates[offset + 2] = x2;
+        coordinates[offset + 3] = y2;
+        angles[size] = (float) Math.atan2(y2 - y1, x2 - x1);
+        lengths[size] = (float) Math.hypot(x2 - x1, y2 - y1);
+        size++;
+    }
+
+    public void add(Line line) {
+        add((int) Math.round(line.getPoint1().getX()), (int) Math.round(line.getPoint1().getY()),
+                (int) Math.round(line.getPoint2().getX()), (int) Math.round(line.getPoint2().getY()));
+    }
+
+    public void addAll(LineBuffer other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.coordinates, 0, coordinates, 4 * size, 4 * other.size);
+        System.arraycopy(other.angles, 0, angles, size, other.size);
+        System.arraycopy(other.lengths, 0, lengths, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Moves all lines by the given offset, e.g. from a region of interest back to image coordinates.
+     */
+    public void translate(int dx, int dy) {
+        for (int i = 0; i < size; i++) {
+            coordinates[4 * i] += dx;
+            coordinates[4 * i + 1] += dy;
+            coordinates[4 * i + 2] += dx;
+            coordinates[4 * i + 3] += dy;
+        }
+    }
+
+    /**
+     * Multiplies all lines by the given factor, e.g. from a downscaled image back to source coordinates.
+     */
+    public void scale(int factor) {
+        if (factor == 1) {
+            return;
+        }
+
+        for (int i = 0; i < 4 * size; i++) {
+            coordinates[i] *= factor;
+        }
+        for (int i = 0; i < size; i++) {
+            lengths[i] *= factor;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int x1(int index) {
+        return coordinates[4 * index];
+    }
+
+    public int y1(int index) {
+        return coordinates[4 * index + 1];
+    }
+
+    public int x2(int index) {
+        return coordinates[4 * index + 2];
+    }
+
+    public int y2(int index) {
+        return coordinates[4 * index + 3];
+    }
+
+    /**
+     * @return angle in radians, as {@link Line#angleRad()}.
+     */
+    public float angle(int index) {
+        return angles[index];
+    }
+
+    public float length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * @return x of the bottom-most point, as {@link Line#bottomMost()}.
+     */
+    public int bottomX(int index) {
+        return y1(index) > y2(index) ? x1(index) : x2(index);
+    }
+
+    /**
+     * @return y of the bottom-most point, as {@link Line#bottomMost()}.
+     */
+    public int bottomY(int index) {
+        return Math.max(y1(index), y2(index));
+    }
+
+    public Line line(int index) {
+        return new Line(new Point(x1(index), y1(index)), new Point(x2(index), y2(index)));
+    }
+
+    public Collection<Line> toLines() {
+        List<Line> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lines.add(line(i));
+        }
+        return lines;
+    }
+
+    /**
+     * Releases the native buffer.
+     */
+    public void release() {
+        if (mat != null) {
+            mat.release();
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= angles.length) {
+            return;
+        }
+
+        int grown = Math.max(capacity, 2 * angles.length);
+        int[] newCoordinates = new int[4 * grown];
+        float[] newAngles = new float[grown];
+        float[] newLengths = new float[grown];
+        System.arraycopy(coordinates, 0, newCoordinates, 0, 4 * size);
+        System.arraycopy(angles, 0, newAngles, 0, size);
+        System.arraycopy(lengths, 0, newLengths, 0, size);
+        coordinates = newCoordinates;
+        angles = newAngles;
+        lengths = newLengths;
+    }
+}
@@ -0,0 +1,205 @@
+package nl.vaneijndhoven.opencv.linedetection;
+
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.geometry.Point;
+import nl.vaneijndhoven.geometry.Point2D;
+import nl.vaneijndhoven.objects.lane.LaneLeftBoundary;
+import nl.vaneijndhoven.objects.lane.LaneRightBoundary;
+import nl.vaneijndhoven.objects.stoppingzone.ZoneEndBoundary;
+import nl.vaneijndhoven.objects.stoppingzone.ZoneStartBoundary;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static java.lang.Math.toRadians;
+
+/**
+ * Classifies detected lines as lane (left, right) and stopping zone (start, end) boundary candidates in a single
+ * pass, using the angles and selection rules of {@link LaneLeftBoundary}, {@link LaneRightBoundary},
+ * {@link ZoneStartBoundary} and {@link ZoneEndBoundary}. Per class only the running top-k candidates are kept (the
+ * zone end, an average, keeps running sums). Reused from frame to frame, not thread safe.
+ */
+public class LineClassifier {
+
+    private static final int DEFAULT_K = 1;
+
+    private final Range left = range(LaneLeftBoundary.DEFAULT_ANGLE, LaneLeftBoundary.DEFAULT_TOLERANCE);
+    private final Range right = range(LaneRightBoundary.DEFAULT_ANGLE, LaneRightBoundary.DEFAULT_TOLERANCE);
+    private final Range zoneStart = range(ZoneStartBoundary.DEFAULT_ANGLE, ZoneStartBoundary.DEFAULT_TOLERANCE);
+    private final Range zoneEnd = range(ZoneEndBoundary.DEFAULT_ANGLE, ZoneEndBoundary.DEFAULT_TOLERANCE);
+
+    private final TopK leftTop;
+    private final TopK rightTop;
+    private final TopK zoneStartTop;
+
+    private LineBuffer lines;
+    private int zoneEndCount;
+    private double sumx;
+    private double sumy;
+    private double sumxlen;
+    private double sumylen;
+
+    public LineClassifier() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k number of candidates kept per lane and zone start class.
+     */
+    public LineClassifier(int k) {
+        this.leftTop = new TopK(k);
+        this.rightTop = new TopK(k);
+        this.zoneStartTop = new TopK(k);
+    }
+
+    public LineClassifier classify(LineBuffer lines) {
+        return classify(lines, lines.size(), 0);
+    }
+
+    /**
+     * Classifies lines found in separate fields: left lane candidates are only taken from the lines before the
+     * split index (left field), right lane candidates only from the lines from the split index on (right field).
+     */
+    public LineClassifier classify(LineBuffer lines, int split) {
+        return classify(lines, split, split);
+    }
+
+    private LineClassifier classify(LineBuffer lines, int leftEnd, int rightStart) {
+        this.lines = lines;
+        leftTop.clear();
+        rightTop.clear();
+        zoneStartTop.clear();
+        zoneEndCount = 0;
+        sumx = sumy = sumxlen = sumylen = 0;
+
+        for (int i = 0; i < lines.size(); i++) {
+            float angle = lines.angle(i);
+            int bottomX = lines.bottomX(i);
+            int bottomY = lines.bottomY(i);
+
+            if (i < leftEnd && left.contains(angle)) {
+                // nearest: smallest bottom y, then smallest bottom x
+                leftTop.offer(i, bottomY, bottomX);
+            }
+            if (i >= rightStart && right.contains(angle)) {
+                // nearest: smallest bottom y, then largest bottom x
+                rightTop.offer(i, bottomY, -bottomX);
+            }
+            if (zoneStart.contains(angle)) {
+                // nearest: largest bottom y
+                zoneStartTop.offer(i, -bottomY, 0);
+            }
+            if (zoneEnd.contains(angle)) {
+                zoneEndCount++;
+                sumx += lines.x1(i) + lines.x2(i);
+                sumy += lines.y1(i) + lines.y2(i);
+                sumxlen += lines.x2(i) - lines.x1(i);
+                sumylen += lines.y2(i) - lines.y1(i);
+            }
+        }
+
+        return this;
+    }
+
+    public Optional<Line> left() {
+        return left(0);
+    }
+
+    public Optional<Line> left(int rank) {
+        return leftTop.line(rank);
+    }
+
+    public Optional<Line> right() {
+        return right(0);
+    }
+
+    public Optional<Line> right(int rank) {
+        return rightTop.line(rank);
+    }
+
+    public Optional<Line> zoneStart() {
+        return zoneStartTop.line(0);
+    }
+
+    /**
+     * @return the average of the zone end candidates, as {@link nl.vaneijndhoven.objects.Boundary#boundary}.
+     */
+    public Optional<Line> zoneEnd() {
+        if (zoneEndCount == 0) {
+            return Optional.ofNullable(Line.average(Collections.emptyList()));
+        }
+
+        double avgx = sumx / (zoneEndCount * 2);
+        double avgy = sumy / (zoneEndCount * 2);
+        double avgxlen = sumxlen / zoneEndCount;
+        double avgylen = sumylen / zoneEndCount;
+
+        Point2D origin = new Point(avgx - 0.5 * avgxlen, avgy - 0.5 * avgylen);
+        return Optional.of(new Line(origin, new Line.Vector(avgxlen, avgylen).calculate(origin, 1)));
+    }
+
+    private static Range range(double angle, double tolerance) {
+        return new Range(toRadians(angle - tolerance), toRadians(angle + tolerance));
+    }
+
+    private static class Range {
+
+        private final double min;
+        private final double max;
+
+        private Range(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        private boolean contains(double radian) {
+            return radian >= min && radian <= max;
+        }
+    }
+
+    /**
+     * The k smallest candidates by (primary, secondary) key, kept sorted by insertion.
+     */
+    private class TopK {
+
+        private final int[] indices;
+        private final int[] primary;
+        private final int[] secondary;
+        private int size;
+
+        private TopK(int k) {
+            this.indices = new int[k];
+            this.primary = new int[k];
+            this.secondary = new int[k];
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void offer(int index, int primaryKey, int secondaryKey) {
+            int position = size;
+            while (position > 0 && (primaryKey < primary[position - 1] || primaryKey == primary[position - 1] && secondaryKey < secondary[position - 1])) {
+                position--;
+            }
+            if (position >= indices.length) {
+                return;
+            }
+
+            int last = Math.min(size, indices.length - 1);
+            for (int i = last; i > position; i--) {
+                indices[i] = indices[i - 1];
+                primary[i] = primary[i - 1];
+                secondary[i] = secondary[i - 1];
+            }
+            indices[position] = index;
+            primary[position] = primaryKey;
+            secondary[position] = secondaryKey;
+            size = Math.min(size + 1, indices.length);
+        }
+
+        private Optional<Line> line(int rank) {
+            return rank < size ? Optional.of(lines.line(indices[rank])) : Optional.empty();
+        }
+    }
+}
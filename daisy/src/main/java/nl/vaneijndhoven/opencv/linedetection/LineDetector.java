@@ -9,4 +9,12 @@ public interface LineDetector {
 
     Collection<Line> detect(Mat image);
 
+    /**
+     * Detects lines into the buffer, replacing its contents.
+     */
+    default void detect(Mat image, LineBuffer lines) {
+        lines.clear();
+        detect(image).forEach(lines::add);
+    }
+
 }
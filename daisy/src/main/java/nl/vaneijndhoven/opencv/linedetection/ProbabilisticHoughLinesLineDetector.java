@@ -16,7 +16,7 @@ public class ProbabilisticHoughLinesLineDetector implements LineDetector {
     private int threshold = 70;
     private double minLineLength = 20;
     private double maxLineGap = 10;
-    private Optional<ImageCollector> collector;
+    private Optional<ImageCollector> collector = Optional.empty();
 
     public ProbabilisticHoughLinesLineDetector() {}
 
@@ -32,6 +32,14 @@ public class ProbabilisticHoughLinesLineDetector implements LineDetector {
         this(cfg.getRho(), cfg.getTheta(), cfg.getThreshold(), cfg.getMinLineLength(), cfg.getMaxLineGap());
     }
 
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
     @Override
     public Collection<Line> detect(Mat image) {
         Mat lines = detectMat(image);
@@ -49,6 +57,13 @@ public class ProbabilisticHoughLinesLineDetector implements LineDetector {
         return lineObjects;
     }
 
+    @Override
+    public void detect(Mat image, LineBuffer lines) {
+        Imgproc.HoughLinesP(image, lines.mat(), rho, theta, threshold, minLineLength, maxLineGap);
+        collector.ifPresent(coll -> coll.lines(lines.mat()));
+        lines.load();
+    }
+
     private Mat detectMat(Mat image) {
         Mat lines = new Mat();
         Imgproc.HoughLinesP(image, lines, rho, theta, threshold, minLineLength, maxLineGap);
@@ -109,6 +124,23 @@ public class ProbabilisticHoughLinesLineDetector implements LineDetector {
             this.maxLineGap = maxLineGap;
         }
 
+        /**
+         * Copy for an image scaled by the given factor, pixel lengths and the vote threshold scale along.
+         */
+        public Config scaled(double factor) {
+            if (factor == 1) {
+                return this;
+            }
+
+            Config scaled = new Config();
+            scaled.setRho(rho);
+            scaled.setTheta(theta);
+            scaled.setThreshold(Math.max(1, (int) Math.round(threshold * factor)));
+            scaled.setMinLineLength(minLineLength * factor);
+            scaled.setMaxLineGap(maxLineGap * factor);
+            return scaled;
+        }
+
 
 
 
@@ -0,0 +1,258 @@
+package nl.vaneijndhoven.opencv.linedetection;
+
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.opencv.perspective.BirdsEyeView;
+import nl.vaneijndhoven.opencv.perspective.TransformToBirdsEye;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Finds the two lane boundaries in a binary (edge) image of the region of interest, without a Hough transform. The
+ * edge pixels are projected to the bird's-eye view, where the boundaries are near vertical. A column histogram of the
+ * bottom half gives the base position of each boundary, windows stacked up the view follow it, and a least-squares
+ * fit x = a * y + b through the pixels in the windows gives the boundary, mapped back to image coordinates. Only the
+ * edge pixels are projected and visited, so the cost is one scan of the image plus a few passes over the edges.
+ * <p>
+ * Only the lane boundaries are found, no stopping zone lines. The left boundary is reported with a negative and the
+ * right one with a positive angle, as the lane boundary filters expect. Not thread safe.
+ */
+public class SlidingWindowLineDetector implements LineDetector {
+
+    private static final int DEFAULT_WINDOWS = 9;
+    private static final double DEFAULT_MARGIN = 1d / 12;
+    private static final int DEFAULT_MIN_PIXELS = 20;
+
+    private final int windows;
+    private final double margin;
+    private final int minPixels;
+
+    private final Mat continuous = new Mat();
+    private Size size;
+    private double[] matrix;
+    private double[] inverse;
+    private byte[] pixels = new byte[0];
+    private int[] histogram = new int[0];
+    private int[] starts;
+
+    // edge pixels in bird's-eye coordinates, grouped by window
+    private int count;
+    private float[] xs = new float[0];
+    private float[] ys = new float[0];
+    private int[] bins = new int[0];
+    private float[] sortedXs = new float[0];
+    private float[] sortedYs = new float[0];
+
+    public SlidingWindowLineDetector() {
+        this(DEFAULT_WINDOWS, DEFAULT_MARGIN, DEFAULT_MIN_PIXELS);
+    }
+
+    /**
+     * @param windows number of windows stacked up the image per boundary.
+     * @param margin half width of a window, as a fraction of the image width.
+     * @param minPixels pixels needed in a window to recenter the next window on them.
+     */
+    public SlidingWindowLineDetector(int windows, double margin, int minPixels) {
+        this.windows = windows;
+        this.margin = margin;
+        this.minPixels = minPixels;
+        this.starts = new int[windows + 1];
+    }
+
+    @Override
+    public Collection<Line> detect(Mat image) {
+        LineBuffer lines = new LineBuffer();
+        detect(image, lines);
+        return lines.toLines();
+    }
+
+    @Override
+    public void detect(Mat image, LineBuffer lines) {
+        lines.clear();
+        if (image.empty()) {
+            return;
+        }
+
+        transform(image.size());
+
+        int width = image.cols();
+        int height = image.rows();
+        if (pixels.length < width * height) {
+            pixels = new byte[width * height];
+        }
+        if (image.isContinuous()) {
+            image.get(0, 0, pixels);
+        } else {
+            image.copyTo(continuous);
+            continuous.get(0, 0, pixels);
+        }
+
+        project(width, height);
+        group(height);
+
+        // base positions: the strongest columns of the bottom half, left and right of the middle
+        if (histogram.length < width) {
+            histogram = new int[width];
+        }
+        Arrays.fill(histogram, 0, width, 0);
+        for (int i = 0; i < count; i++) {
+            if (sortedYs[i] >= height / 2) {
+                histogram[(int) sortedXs[i]]++;
+            }
+        }
+
+        follow(argmax(0, width / 2), width, height, lines);
+        follow(argmax(width / 2, width), width, height, lines);
+    }
+
+    private void transform(Size imageSize) {
+        if (size == null || !size.equals(imageSize)) {
+            TransformToBirdsEye transform = BirdsEyeView.transformFor(imageSize);
+            size = imageSize;
+            matrix = transform.matrix();
+            inverse = transform.inverse();
+            transform.release();
+        }
+    }
+
+    /**
+     * Projects the edge pixels that land inside the bird's-eye view.
+     */
+    private void project(int width, int height) {
+        count = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (pixels[row + x] == 0) {
+                    continue;
+                }
+
+                double w = matrix[6] * x + matrix[7] * y + matrix[8];
+                double bx = (matrix[0] * x + matrix[1] * y + matrix[2]) / w;
+                double by = (matrix[3] * x + matrix[4] * y + matrix[5]) / w;
+                if (bx < 0 || bx >= width || by < 0 || by >= height) {
+                    continue;
+                }
+
+                if (count == xs.length) {
+                    int grown = Math.max(1024, 2 * count);
+                    xs = Arrays.copyOf(xs, grown);
+                    ys = Arrays.copyOf(ys, grown);
+                }
+                xs[count] = (float) bx;
+                ys[count] = (float) by;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Sorts the projected pixels by window, bottom window first, so each window visits only its own pixels.
+     */
+    private void group(int height) {
+        if (bins.length < count) {
+            bins = new int[xs.length];
+            sortedXs = new float[xs.length];
+            sortedYs = new float[xs.length];
+        }
+
+        Arrays.fill(starts, 0);
+        for (int i = 0; i < count; i++) {
+            bins[i] = window(ys[i], height);
+            starts[bins[i] + 1]++;
+        }
+        for (int window = 0; window < windows; window++) {
+            starts[window + 1] += starts[window];
+        }
+        int[] next = Arrays.copyOf(starts, windows);
+        for (int i = 0; i < count; i++) {
+            int position = next[bins[i]]++;
+            sortedXs[position] = xs[i];
+            sortedYs[position] = ys[i];
+        }
+    }
+
+    private int window(float y, int height) {
+        int windowHeight = Math.max(1, height / windows);
+        return Math.min(windows - 1, (int) ((height - y) / windowHeight));
+    }
+
+    private int argmax(int from, int to) {
+        int best = -1;
+        for (int x = from; x < to; x++) {
+            if (histogram[x] > 0 && (best < 0 || histogram[x] > histogram[best])) {
+                best = x;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Follows the boundary up from the base position and adds the fitted line, if any.
+     */
+    private void follow(int base, int width, int height, LineBuffer lines) {
+        if (base < 0) {
+            return;
+        }
+
+        double halfWidth = Math.max(1, Math.round(margin * width));
+        double current = base;
+
+        long n = 0;
+        double sumY = 0;
+        double sumYY = 0;
+        double sumX = 0;
+        double sumXY = 0;
+
+        for (int window = 0; window < windows; window++) {
+            double xLow = current - halfWidth;
+            double xHigh = current + halfWidth;
+
+            int inWindow = 0;
+            double windowSumX = 0;
+            for (int i = starts[window]; i < starts[window + 1]; i++) {
+                float x = sortedXs[i];
+                if (x >= xLow && x < xHigh) {
+                    float y = sortedYs[i];
+                    inWindow++;
+                    windowSumX += x;
+                    sumY += y;
+                    sumYY += (double) y * y;
+                    sumX += x;
+                    sumXY += (double) x * y;
+                }
+            }
+
+            n += inWindow;
+            if (inWindow >= minPixels) {
+                current = windowSumX / inWindow;
+            }
+        }
+
+        double denominator = n * sumYY - sumY * sumY;
+        if (n < minPixels || denominator == 0) {
+            return;
+        }
+
+        // least squares x = a * y + b, from the top to the bottom of the bird's-eye view
+        double a = (n * sumXY - sumX * sumY) / denominator;
+        double b = (sumX - a * sumY) / n;
+
+        double[] top = toImage(b, 0);
+        double[] bottom = toImage(a * height + b, height);
+
+        // ordered left to right, which gives the left boundary a negative and the right one a positive angle
+        double[] first = top[0] <= bottom[0] ? top : bottom;
+        double[] second = first == top ? bottom : top;
+        lines.add((int) Math.round(first[0]), (int) Math.round(first[1]), (int) Math.round(second[0]), (int) Math.round(second[1]));
+    }
+
+    private double[] toImage(double x, double y) {
+        double w = inverse[6] * x + inverse[7] * y + inverse[8];
+        return new double[]{
+                (inverse[0] * x + inverse[1] * y + inverse[2]) / w,
+                (inverse[3] * x + inverse[4] * y + inverse[5]) / w};
+    }
+}
@@ -2,7 +2,11 @@ package nl.vaneijndhoven.opencv.objectdetection;
 
 import nl.vaneijndhoven.geometry.Line;
 import nl.vaneijndhoven.opencv.edgedectection.EdgeDetector;
+import nl.vaneijndhoven.opencv.linedetection.LineBuffer;
 import nl.vaneijndhoven.opencv.linedetection.LineDetector;
+import nl.vaneijndhoven.opencv.tools.MatPool;
+import nl.vaneijndhoven.opencv.tools.StageTimings;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 
 import java.util.Collection;
@@ -21,7 +25,31 @@ public class LineExtractor {
         // step1 edge detection
         Mat imgEdges = edgeDetector.detect(image);
 
+        // step 2 line detection
+        try {
+            return lineDetector.detect(imgEdges);
+        } finally {
+            imgEdges.release();
+        }
+    }
+
+    public Collection<Line> extract(Mat image, MatPool.Scope scope) {
+        // step1 edge detection, into a pooled buffer
+        Mat imgEdges = edgeDetector.detect(image, scope.lease(image.size(), CvType.CV_8UC1));
+
         // step 2 line detection
         return lineDetector.detect(imgEdges);
     }
+
+    public void extract(Mat image, MatPool.Scope scope, LineBuffer lines) {
+        extract(image, scope, lines, StageTimings.NONE);
+    }
+
+    public void extract(Mat image, MatPool.Scope scope, LineBuffer lines, StageTimings timings) {
+        long t = timings.start();
+        Mat imgEdges = edgeDetector.detect(image, scope.lease(image.size(), CvType.CV_8UC1));
+        t = timings.lap(StageTimings.Stage.CANNY, t);
+        lineDetector.detect(imgEdges, lines);
+        timings.lap(StageTimings.Stage.HOUGH, t);
+    }
 }
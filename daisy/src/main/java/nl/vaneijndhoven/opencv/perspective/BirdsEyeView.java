@@ -0,0 +1,120 @@
+package nl.vaneijndhoven.opencv.perspective;
+
+import nl.vaneijndhoven.geometry.Point;
+import nl.vaneijndhoven.geometry.Polygon;
+import nl.vaneijndhoven.opencv.roi.RegionOfInterest;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bird's-eye view of the road ahead: the region of interest of a camera frame, warped so the lane boundaries become
+ * (roughly) parallel. The perspective transform is computed once per image size. Safe for use by multiple threads.
+ * <p>
+ * The transform is reference counted: the view holds one reference to the current transform and every warp holds
+ * one while it runs. When the image size changes the view drops its reference to the old transform, which releases
+ * its native memory as soon as the last warp in progress is done with it.
+ */
+public class BirdsEyeView {
+
+    private final RegionOfInterest region;
+
+    private SharedTransform current;
+
+    public BirdsEyeView(RegionOfInterest region) {
+        this.region = region;
+    }
+
+    /**
+     * @return the size of the view of a frame of the given size.
+     */
+    public Size size(Size frameSize) {
+        return region.roi(frameSize).size();
+    }
+
+    /**
+     * Warps the region of interest of the frame into the output, which is reallocated when needed.
+     */
+    public void transform(Mat frame, Mat output) {
+        Mat image = region.region(frame);
+        try (SharedTransform transform = acquire(image.size())) {
+            transform.get().transform(image, output);
+        } finally {
+            image.release();
+        }
+    }
+
+    /**
+     * Releases the current transform, warps still in progress keep it until they are done.
+     */
+    public synchronized void release() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * @return the transform for the image size with a reference for the caller, which must close it.
+     */
+    private synchronized SharedTransform acquire(Size imageSize) {
+        if (current == null || !current.size.equals(imageSize)) {
+            // a replaced transform may still be in use by another thread, it is released by the last one to close it
+            if (current != null) {
+                current.close();
+            }
+            current = new SharedTransform(imageSize, transformFor(imageSize));
+        }
+
+        // the view's own reference keeps the count above zero while it is the current transform
+        current.references.incrementAndGet();
+        return current;
+    }
+
+    /**
+     * @return the perspective transform from a region of interest of the given size to its bird's-eye view.
+     */
+    public static TransformToBirdsEye transformFor(Size imageSize) {
+        return new TransformToBirdsEye(imagePolygon(imageSize), worldPolygon(imageSize));
+    }
+
+    private static Polygon imagePolygon(Size imageSize) {
+        return new Polygon(
+                new Point(0.45 * imageSize.width, 0.1 * imageSize.height),
+                new Point(0.55 * imageSize.width, 0.1 * imageSize.height),
+                new Point(0.9 * imageSize.width, imageSize.height),
+                new Point(0.1 * imageSize.width, imageSize.height));
+    }
+
+    private static Polygon worldPolygon(Size imageSize) {
+        return new Polygon(
+                new Point(0.3 * imageSize.width, 0),
+                new Point(0.7 * imageSize.width, 0),
+                new Point(0.7 * imageSize.width, imageSize.height),
+                new Point(0.3 * imageSize.width, imageSize.height));
+    }
+
+    private static class SharedTransform implements AutoCloseable {
+
+        private final Size size;
+        private final TransformToBirdsEye transform;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private SharedTransform(Size size, TransformToBirdsEye transform) {
+            this.size = size;
+            this.transform = transform;
+        }
+
+        private TransformToBirdsEye get() {
+            return transform;
+        }
+
+        @Override
+        public void close() {
+            if (references.decrementAndGet() == 0) {
+                transform.release();
+            }
+        }
+    }
+}
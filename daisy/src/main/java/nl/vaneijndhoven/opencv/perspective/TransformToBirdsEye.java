@@ -34,12 +34,45 @@ public class TransformToBirdsEye {
         imagePointsMat.fromList(imagePoints);
         worldPointsMat.fromList(worldPoints);
 
-        return Imgproc.getPerspectiveTransform(imagePointsMat, worldPointsMat);
+        Mat transform = Imgproc.getPerspectiveTransform(imagePointsMat, worldPointsMat);
+        imagePointsMat.release();
+        worldPointsMat.release();
+        return transform;
     }
 
     public Mat transform(Mat input) {
-        Mat output = new Mat();
+        return transform(input, new Mat());
+    }
+
+    public Mat transform(Mat input, Mat output) {
         Imgproc.warpPerspective(input, output, perspectiveTransform, input.size());
         return output;
     }
+
+    /**
+     * @return the 3x3 perspective matrix, row major.
+     */
+    public double[] matrix() {
+        double[] matrix = new double[9];
+        perspectiveTransform.get(0, 0, matrix);
+        return matrix;
+    }
+
+    /**
+     * @return the 3x3 matrix of the inverse transform (bird's-eye back to image), row major.
+     */
+    public double[] inverse() {
+        Mat inverse = perspectiveTransform.inv();
+        try {
+            double[] matrix = new double[9];
+            inverse.get(0, 0, matrix);
+            return matrix;
+        } finally {
+            inverse.release();
+        }
+    }
+
+    public void release() {
+        perspectiveTransform.release();
+    }
 }
@@ -20,7 +20,7 @@ public class RegionOfInterest {
     }
 
     public Rect roi(Size base) {
-        double roiX = base.height * xFraction;
+        double roiX = base.width * xFraction;
         double roiY = base.height * yFraction;
 
         double roiHeight = base.height * heightFraction;
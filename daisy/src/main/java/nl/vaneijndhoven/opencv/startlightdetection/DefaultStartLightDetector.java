@@ -2,6 +2,7 @@ package nl.vaneijndhoven.opencv.startlightdetection;
 
 import nl.vaneijndhoven.objects.StartLight;
 import nl.vaneijndhoven.opencv.tools.DebugTools;
+import nl.vaneijndhoven.opencv.tools.Downscale;
 import nl.vaneijndhoven.opencv.tools.ImageCollector;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
@@ -12,15 +13,54 @@ import java.util.Optional;
 
 import static java.util.Optional.of;
 
+/**
+ * Detects the start light in a small region of the frame by its colour. The decision only counts the pixels of the
+ * region that fall in the configured HSV range: the light is on when they cover at least
+ * {@link Config#getMinFraction()} of the region. The HSV and mask buffers are allocated once and reused from frame to
+ * frame, so the decision path costs one colour conversion, one range check and one count over the region.
+ * <p>
+ * Morphology and contour extraction are only done for the debug images, when an image collector is set: the mask is
+ * cleaned with an erosion followed by a dilation (structuring elements built once per image size) and the contours
+ * are drawn on a copy of the region. The region is fixed, or found and followed by a {@link StartLightLocator}.
+ * Not thread safe, one detector per pipeline.
+ */
 public class DefaultStartLightDetector implements StartLightDetector {
 
+    private static final Size REFERENCE_SIZE = new Size(768, 576);
+    private static final Rect REGION = new Rect(250, 60, 40, 50);
+    private static final Scalar CONTOUR_COLOR = new Scalar(10, 250, 20);
+
+    /**
+     * Default in-range fraction of the region. The morphology this decision replaces was meant to erode the mask with
+     * a 12x12 element (at {@link #REFERENCE_SIZE}), which only keeps blobs that hold a 12x12 square: 144 of the
+     * 40x50 pixels of the region, 7.2%. A count over the same area rejects the same scattered noise pixels, but also
+     * accepts a light that is lit over that area in a shape other than a square.
+     */
+    static final double MIN_FRACTION = 12 * 12 / (double) (REGION.width * REGION.height);
+
     private Config config = new Config();
 
     private StartLight startLight = StartLight.init();
 
     private DebugTools debug = new DebugTools.VoidTools();
-    private Mat frame;
     private Optional<ImageCollector> collector = Optional.empty();
+    private Downscale downscale = Downscale.NONE;
+    private StartLightLocator locator;
+
+    // buffers and kernels, reused from frame to frame
+    private final Mat frame = new Mat();
+    private final Mat hsvImage = new Mat();
+    private final Mat mask = new Mat();
+    private final Mat morphOutput = new Mat();
+    private final Mat hierarchy = new Mat();
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final Scalar minValues = new Scalar(0, 0, 0);
+    private final Scalar maxValues = new Scalar(0, 0, 0);
+    private Size imageSize;
+    private Rect fixedRegion;
+    private Rect rect;
+    private Mat dilateElement;
+    private Mat erodeElement;
 
     public DefaultStartLightDetector() {}
 
@@ -39,92 +79,97 @@ public class DefaultStartLightDetector implements StartLightDetector {
         this.config = config;
     }
 
+    @Override
     public StartLight detect(Mat image) {
-        // init
-//        Mat blurredImage = new Mat();
-        Mat hsvImage = new Mat();
-        Mat mask = new Mat();
-        Mat morphOutput = new Mat();
-// 768 * 576
-        // int x, int y, int width, int height
-        Rect rect = new Rect(250, 60, 40, 50);
-        frame = new Mat(image, rect);
-//        frame = new RegionOfInterest(0.33, 0.10, 0.05, 0.05).region(image);
-
-        // convert the frame to HSV
-        Imgproc.cvtColor(frame, hsvImage, Imgproc.COLOR_BGR2HSV);
-
-        // get thresholding values from the UI
+        geometry(image.size());
+        ranges();
+        if (locator != null) {
+            rect = locator.region(image, minValues, maxValues, fixedRegion);
+        }
+
+        // the region is only copied (at processing resolution) when it has to be scaled or drawn on, the image may be
+        // shared with other detectors
+        Mat region = new Mat(image, rect);
+        Mat input = region;
+        if (!downscale.isNone() || collector.isPresent()) {
+            downscale.apply(region, frame);
+            input = frame;
+        }
+
         // remember: H ranges 0-180, S and V range 0-255
-        Scalar minValues = new Scalar(config.getHueStart(), config.getSaturationStart(),
-                config.getValueStart());
-        Scalar maxValues = new Scalar(config.getHueStop(), config.getSaturationStop(),
-                config.getValueStop());
-
-        // show the current selected HSV range
-        String valuesToPrint = "Hue range: " + minValues.val[0] + "-" + maxValues.val[0]
-                + "\tSaturation range: " + minValues.val[1] + "-" + maxValues.val[1] + "\tValue range: "
-                + minValues.val[2] + "-" + maxValues.val[2];
-//        this.onFXThread(this.hsvValuesProp, valuesToPrint);
-
-        // threshold HSV image to select tennis balls
+        Imgproc.cvtColor(input, hsvImage, Imgproc.COLOR_BGR2HSV);
+        region.release();
+
         Core.inRange(hsvImage, minValues, maxValues, mask);
-        // show the partial output
-        collector.ifPresent(coll -> coll.mask(mask));
+        if (locator != null) {
+            locator.update(mask, downscale.getFactor());
+        }
 
-        // morphological operators
-        // dilate with large element, erode with small ones
-        Mat dilateElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(24, 24));
-        Mat erodeElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(12, 12));
+        boolean lit = Core.countNonZero(mask) >= minPixels(mask);
+        collector.ifPresent(coll -> debugImages(coll, frame));
 
-        Imgproc.erode(mask, morphOutput, erodeElement);
-        Imgproc.erode(mask, morphOutput, erodeElement);
+        return lit ? startLight.on() : startLight.off();
+    }
+
+    /**
+     * Region and structuring elements, only computed again when the image size changes.
+     */
+    private void geometry(Size size) {
+        if (imageSize != null && imageSize.equals(size)) {
+            return;
+        }
+
+        imageSize = size;
+        fixedRegion = region(size);
+        rect = fixedRegion;
 
-        Imgproc.dilate(mask, morphOutput, dilateElement);
-        Imgproc.dilate(mask, morphOutput, dilateElement);
+        double scale = size.width / REFERENCE_SIZE.width / downscale.getFactor();
+        if (dilateElement != null) {
+            dilateElement.release();
+            erodeElement.release();
+        }
+        // dilate with large element, erode with small ones
+        dilateElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, kernel(24, scale));
+        erodeElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, kernel(12, scale));
+    }
 
-        // show the partial output
-        collector.ifPresent(coll -> coll.morph(morphOutput));
+    /**
+     * @return in-range pixels needed to see the light, for the size the region is processed at (which changes with
+     * the downscale and with the region found by the locator).
+     */
+    private int minPixels(Mat mask) {
+        return Math.max(1, (int) Math.ceil(config.getMinFraction() * mask.total()));
+    }
 
-        // find the tennis ball(s) contours and show them
-        return this.detect(morphOutput, frame);
+    private void ranges() {
+        minValues.val[0] = config.getHueStart();
+        minValues.val[1] = config.getSaturationStart();
+        minValues.val[2] = config.getValueStart();
+        maxValues.val[0] = config.getHueStop();
+        maxValues.val[1] = config.getSaturationStop();
+        maxValues.val[2] = config.getValueStop();
     }
 
     /**
-     * Given a binary image containing one or more closed surfaces, use it as a
-     * mask to find and highlight the objects contours
-     *
-     * @param maskedImage the binary image to be used as a mask
-     * @param frame       the original {@link Mat} image to be used for drawing the
-     *                    objects contours
-     * @return the {@link Mat} image with the objects contours framed
+     * Cleans the mask and highlights the contours of what is left on the frame, for the debug images only.
      */
-    private StartLight detect(Mat maskedImage, Mat frame) {
-        // init
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
+    private void debugImages(ImageCollector collector, Mat frame) {
+        collector.mask(mask);
 
-        // find contours
-        Imgproc.findContours(maskedImage, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+        Imgproc.erode(mask, morphOutput, erodeElement);
+        Imgproc.dilate(morphOutput, morphOutput, dilateElement);
+        collector.morph(morphOutput);
 
-        StartLight startLight = this.startLight;
-        // if any contour exist...
+        contours.forEach(Mat::release);
+        contours.clear();
+        Imgproc.findContours(morphOutput, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
         if (hierarchy.size().height > 0 && hierarchy.size().width > 0) {
-            // for each contour, display it in blue
             for (int idx = 0; idx >= 0; idx = (int) hierarchy.get(0, idx)[0]) {
-
-//                Imgproc.drawMarker(frame,   ,  new Scalar(250, 0, 0));
-                // Imgproc.drawContours(frame, contours, idx, new Scalar(0, 0, 255));
-                Imgproc.drawContours(frame, contours, idx, new Scalar(10, 250, 20), 10);
+                Imgproc.drawContours(frame, contours, idx, CONTOUR_COLOR, 10);
             }
-
-            startLight = startLight.on();
-        } else {
-            startLight = startLight.off();
         }
 
-        collector.ifPresent(coll -> coll.startLight(frame));
-        return startLight;
+        collector.startLight(frame);
     }
 
     public DefaultStartLightDetector withDebug(DebugTools debug) {
@@ -132,22 +177,60 @@ public class DefaultStartLightDetector implements StartLightDetector {
         return this;
     }
 
+    /**
+     * @return the region of the last frame with the contours drawn on it, only filled when an image collector is set.
+     */
     public Mat getFrame() {
         return frame;
     }
 
+    @Override
     public DefaultStartLightDetector withImageCollector(ImageCollector collector) {
         this.collector = of(collector);
         return this;
     }
 
+    /**
+     * Process the start light region at a reduced resolution.
+     */
+    public DefaultStartLightDetector withDownscale(Downscale downscale) {
+        this.downscale = downscale;
+        this.imageSize = null;
+        return this;
+    }
+
+    /**
+     * Finds the start light in the frame instead of using the fixed region, and follows it from frame to frame, see
+     * {@link StartLightLocator}.
+     */
+    public DefaultStartLightDetector withLocator(StartLightLocator locator) {
+        this.locator = locator;
+        return this;
+    }
+
+    /**
+     * Fixed start light region, positioned for {@link #REFERENCE_SIZE} and scaled to the actual image size.
+     */
+    private static Rect region(Size imageSize) {
+        double scaleX = imageSize.width / REFERENCE_SIZE.width;
+        double scaleY = imageSize.height / REFERENCE_SIZE.height;
+        return new Rect((int) Math.round(REGION.x * scaleX), (int) Math.round(REGION.y * scaleY),
+                Math.max(1, (int) Math.round(REGION.width * scaleX)), Math.max(1, (int) Math.round(REGION.height * scaleY)));
+    }
+
+    private static Size kernel(int size, double scale) {
+        int scaled = Math.max(1, (int) Math.round(size * scale));
+        return new Size(scaled, scaled);
+    }
+
     public static class Config {
-        private double hueStart;
-        private double hueStop;
-        private double saturationStart;
-        private double saturationStop;
-        private double valueStart;
-        private double valueStop;
+        private double hueStart = 0.0d;
+        private double hueStop = 28.3d;
+        private double saturationStart = 71.9d;
+        private double saturationStop = 98.7d;
+        private double valueStart = 213.9d;
+        private double valueStop = 240.6d;
+        private double minFraction = MIN_FRACTION;
 
         public double getHueStart() {
             return hueStart;
@@ -196,5 +279,16 @@ public class DefaultStartLightDetector implements StartLightDetector {
         public void setValueStop(double valueStop) {
             this.valueStop = valueStop;
         }
+
+        /**
+         * @return fraction of the region that has to be in range to see the light as on.
+         */
+        public double getMinFraction() {
+            return minFraction;
+        }
+
+        public void setMinFraction(double minFraction) {
+            this.minFraction = minFraction;
+        }
     }
 }
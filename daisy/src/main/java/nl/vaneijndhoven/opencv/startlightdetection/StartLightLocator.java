@@ -0,0 +1,154 @@
+package nl.vaneijndhoven.opencv.startlightdetection;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+/**
+ * Finds and follows the start light, so its region does not have to be hard-coded. The first frame (and any frame
+ * after confidence was lost) is searched as a whole for blobs in the start light's HSV range, the largest blob with
+ * a margin around it becomes the region. After that only the region is looked at: while the light is seen the
+ * region is moved along with the centre of its pixels, so a nudged camera is followed at no extra cost. When the
+ * light has not been seen for a number of frames, or is cut off by the edge of the region, the next frame is searched
+ * as a whole again; a search that finds nothing keeps the fallback region. Buffers are reused from search to search.
+ * Not thread safe.
+ */
+public class StartLightLocator {
+
+    private static final int DEFAULT_MISSES = 25;
+    private static final int MIN_SIZE = 16;
+    private static final double MIN_BLOB_AREA = 4;
+
+    private final int maxMisses;
+
+    private final Mat hsv = new Mat();
+    private final Mat mask = new Mat();
+    private final Mat labels = new Mat();
+    private final Mat stats = new Mat();
+    private final Mat centroids = new Mat();
+
+    private Rect region;
+    private Size imageSize;
+    private int misses = 0;
+    private boolean lost = true;
+    private long searches = 0;
+
+    public StartLightLocator() {
+        this(DEFAULT_MISSES);
+    }
+
+    /**
+     * @param maxMisses frames the light may go unseen before the whole frame is searched again.
+     */
+    public StartLightLocator(int maxMisses) {
+        this.maxMisses = maxMisses;
+    }
+
+    /**
+     * @return the region to look at in this frame, searching the whole frame first when needed.
+     */
+    public Rect region(Mat image, Scalar min, Scalar max, Rect fallback) {
+        if (imageSize == null || !imageSize.equals(image.size())) {
+            imageSize = image.size();
+            region = null;
+            lost = true;
+        }
+
+        if (lost) {
+            Rect found = locate(image, min, max);
+            region = found != null ? found : (region != null ? region : fallback);
+            lost = false;
+            misses = 0;
+        }
+
+        return region;
+    }
+
+    /**
+     * Follows the light within the region from the mask of in-range pixels of the region.
+     *
+     * @param scale factor from mask to image coordinates (the mask may be at a reduced resolution).
+     */
+    public void update(Mat regionMask, double scale) {
+        Moments moments = Imgproc.moments(regionMask, true);
+        if (moments.m00 <= 0) {
+            if (++misses >= maxMisses) {
+                lost = true;
+            }
+            return;
+        }
+
+        misses = 0;
+        double cx = moments.m10 / moments.m00 * scale;
+        double cy = moments.m01 / moments.m00 * scale;
+
+        // recentre the region on the light, clamped to the image
+        int x = clamp((int) Math.round(region.x + cx - region.width / 2d), 0, (int) imageSize.width - region.width);
+        int y = clamp((int) Math.round(region.y + cy - region.height / 2d), 0, (int) imageSize.height - region.height);
+        region = new Rect(x, y, region.width, region.height);
+
+        // pixels on the edge of the mask mean the light is (partly) outside the region
+        if (touchesEdge(regionMask)) {
+            lost = true;
+        }
+    }
+
+    public long getSearches() {
+        return searches;
+    }
+
+    /**
+     * @return the largest blob in range with a margin of its own size around it, or null when nothing is in range.
+     */
+    private Rect locate(Mat image, Scalar min, Scalar max) {
+        searches++;
+        Imgproc.cvtColor(image, hsv, Imgproc.COLOR_BGR2HSV);
+        Core.inRange(hsv, min, max, mask);
+
+        int count = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids, 8, CvType.CV_32S);
+        int best = -1;
+        double bestArea = MIN_BLOB_AREA - 1;
+        int[] row = new int[5];
+        for (int label = 1; label < count; label++) {
+            stats.get(label, 0, row);
+            if (row[Imgproc.CC_STAT_AREA] > bestArea) {
+                bestArea = row[Imgproc.CC_STAT_AREA];
+                best = label;
+            }
+        }
+
+        if (best < 0) {
+            return null;
+        }
+
+        stats.get(best, 0, row);
+        int width = Math.max(MIN_SIZE, 3 * row[Imgproc.CC_STAT_WIDTH]);
+        int height = Math.max(MIN_SIZE, 3 * row[Imgproc.CC_STAT_HEIGHT]);
+        width = Math.min(width, image.cols());
+        height = Math.min(height, image.rows());
+        int x = clamp(row[Imgproc.CC_STAT_LEFT] + row[Imgproc.CC_STAT_WIDTH] / 2 - width / 2, 0, image.cols() - width);
+        int y = clamp(row[Imgproc.CC_STAT_TOP] + row[Imgproc.CC_STAT_HEIGHT] / 2 - height / 2, 0, image.rows() - height);
+        return new Rect(x, y, width, height);
+    }
+
+    private static boolean touchesEdge(Mat mask) {
+        return any(mask.row(0)) || any(mask.row(mask.rows() - 1)) || any(mask.col(0)) || any(mask.col(mask.cols() - 1));
+    }
+
+    private static boolean any(Mat part) {
+        try {
+            return Core.countNonZero(part) > 0;
+        } finally {
+            part.release();
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
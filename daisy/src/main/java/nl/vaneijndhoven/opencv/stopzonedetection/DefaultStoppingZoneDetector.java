@@ -4,18 +4,28 @@ import nl.vaneijndhoven.geometry.Line;
 import nl.vaneijndhoven.objects.StoppingZone;
 import nl.vaneijndhoven.objects.stoppingzone.ZoneEndBoundary;
 import nl.vaneijndhoven.objects.stoppingzone.ZoneStartBoundary;
+import nl.vaneijndhoven.opencv.linedetection.LineClassifier;
 import java.util.Collection;
 import java.util.Optional;
 
 public class DefaultStoppingZoneDetector implements StoppingZoneDetector {
 
+    private final ZoneEndBoundary end = new ZoneEndBoundary();
+    private final ZoneStartBoundary start = new ZoneStartBoundary();
 
     @Override
     public StoppingZone detect(Collection<Line> lines) {
-        Optional<Line> endLine = new ZoneEndBoundary().boundary(lines);
-        Optional<Line> startLine = new ZoneStartBoundary().boundary(lines);
+        Optional<Line> endLine = end.boundary(lines);
+        Optional<Line> startLine = start.boundary(lines);
 
         StoppingZone stoppingZone = new StoppingZone(startLine, endLine);
         return stoppingZone;
     }
+
+    /**
+     * Stopping zone from lines that have already been classified.
+     */
+    public StoppingZone detect(LineClassifier classified) {
+        return new StoppingZone(classified.zoneStart(), classified.zoneEnd());
+    }
 }
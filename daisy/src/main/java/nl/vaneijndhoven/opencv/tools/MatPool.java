@@ -0,0 +1,181 @@
+package nl.vaneijndhoven.opencv.tools;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of native {@link Mat} buffers keyed by rows, columns and type. Buffers are handed out as
+ * {@link Lease}s (single buffer) or through a {@link Scope} (all buffers used for one frame) and are returned to
+ * the pool when closed, so the native memory of a processing pipeline stays flat instead of waiting on finalizers.
+ */
+public class MatPool implements AutoCloseable {
+
+    private static final int DEFAULT_MAX_IDLE_PER_KEY = 4;
+
+    private final ConcurrentMap<Key, Deque<Mat>> idle = new ConcurrentHashMap<>();
+    private final int maxIdlePerKey;
+    private volatile boolean closed = false;
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public MatPool() {
+        this(DEFAULT_MAX_IDLE_PER_KEY);
+    }
+
+    public MatPool(int maxIdlePerKey) {
+        this.maxIdlePerKey = maxIdlePerKey;
+    }
+
+    public Lease lease(int rows, int cols, int type) {
+        return new Lease(this, take(rows, cols, type));
+    }
+
+    public Lease lease(Size size, int type) {
+        return lease((int) size.height, (int) size.width, type);
+    }
+
+    public Scope scope() {
+        return new Scope();
+    }
+
+    private Mat take(int rows, int cols, int type) {
+        if (rows <= 0 || cols <= 0) {
+            allocated.incrementAndGet();
+            return new Mat();
+        }
+
+        Deque<Mat> available = idle.get(new Key(rows, cols, type));
+        Mat mat = available != null ? available.pollFirst() : null;
+
+        if (mat != null) {
+            reused.incrementAndGet();
+            return mat;
+        }
+
+        allocated.incrementAndGet();
+        return new Mat(rows, cols, type);
+    }
+
+    void giveBack(Mat mat) {
+        if (closed || mat.empty()) {
+            mat.release();
+            return;
+        }
+
+        Deque<Mat> available = idle.computeIfAbsent(new Key(mat.rows(), mat.cols(), mat.type()), key -> new ConcurrentLinkedDeque<>());
+        if (available.size() < maxIdlePerKey) {
+            available.offerFirst(mat);
+        } else {
+            mat.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        idle.values().forEach(available -> {
+            Mat mat;
+            while ((mat = available.pollFirst()) != null) {
+                mat.release();
+            }
+        });
+        idle.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "allocated: " + allocated.get() + ", reused: " + reused.get();
+    }
+
+    /**
+     * Single pooled buffer, returned to the pool on close.
+     */
+    public static class Lease extends MemoryManagement.ClosableMat<Mat> {
+
+        private final MatPool pool;
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+
+        private Lease(MatPool pool, Mat mat) {
+            super(mat);
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() {
+            if (returned.compareAndSet(false, true)) {
+                pool.giveBack(get());
+            }
+        }
+    }
+
+    /**
+     * Collects all buffers used while processing a single frame, closing the scope returns leased buffers to the
+     * pool and releases tracked (non pooled) ones. A scope is meant to be used by one thread.
+     */
+    public class Scope implements AutoCloseable {
+
+        private final List<Mat> leased = new ArrayList<>();
+        private final List<Mat> tracked = new ArrayList<>();
+
+        private Scope() {}
+
+        public Mat lease(int rows, int cols, int type) {
+            Mat mat = take(rows, cols, type);
+            leased.add(mat);
+            return mat;
+        }
+
+        public Mat lease(Size size, int type) {
+            return lease((int) size.height, (int) size.width, type);
+        }
+
+        public <S extends Mat> S track(S mat) {
+            tracked.add(mat);
+            return mat;
+        }
+
+        @Override
+        public void close() {
+            leased.forEach(MatPool.this::giveBack);
+            tracked.forEach(Mat::release);
+            leased.clear();
+            tracked.clear();
+        }
+    }
+
+    private static class Key {
+
+        private final int rows;
+        private final int cols;
+        private final int type;
+
+        private Key(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return rows == key.rows && cols == key.cols && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * rows + cols) + type;
+        }
+    }
+}
@@ -33,7 +33,7 @@ public class MemoryManagement {
         scoped(resource, execution);
     }
 
-    public static class ClosableMat<S extends Mat> extends Mat implements AutoCloseable {
+    public static class ClosableMat<S extends Mat> implements AutoCloseable {
 
         private S mat;
 
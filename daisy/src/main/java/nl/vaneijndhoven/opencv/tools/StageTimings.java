@@ -0,0 +1,120 @@
+package nl.vaneijndhoven.opencv.tools;
+
+import nl.vaneijndhoven.dukes.hazardcounty.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing time per stage of the detection pipeline, one lock-free {@link LatencyHistogram} per stage. A stage is
+ * timed by passing the start of the stage and getting back its end, which is the start of the next stage:
+ * <pre>
+ * long t = timings.start();
+ * ...
+ * t = timings.lap(Stage.CANNY, t);
+ * </pre>
+ * {@link #roll()} takes a snapshot of the current window and starts a new one, so the histograms describe recent
+ * frames only. Thread safe, the lane detection pipelines and debug readers record concurrently.
+ */
+public class StageTimings {
+
+    /**
+     * {@link #FIELDS} is edge and line detection on both split fields in parallel, which has no separate Canny and
+     * Hough time.
+     */
+    public enum Stage { ROI, DOWNSCALE, PREPROCESS, CANNY, HOUGH, FIELDS, CLASSIFY, LANE, ORIENTATION, DRAW, WARP, ENCODE }
+
+    /**
+     * Timings that record nothing.
+     */
+    public static final StageTimings NONE = new StageTimings() {
+        @Override
+        public long lap(Stage stage, long since) {
+            return System.nanoTime();
+        }
+    };
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private volatile long windowStart = System.currentTimeMillis();
+
+    public StageTimings() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram(stage.name().toLowerCase()));
+        }
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since the given start for the stage.
+     *
+     * @return the current time, the start of the next stage.
+     */
+    public long lap(Stage stage, long since) {
+        long now = System.nanoTime();
+        histograms.get(stage).record(now - since, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * @return the timings of the stages that ran since the previous roll, after which a new window is started.
+     */
+    public Map<String, Object> roll() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> snapshot = snapshot(now);
+        histograms.values().forEach(LatencyHistogram::reset);
+        windowStart = now;
+        return snapshot;
+    }
+
+    /**
+     * @return the timings of the stages that ran in the current window.
+     */
+    public Map<String, Object> snapshot() {
+        return snapshot(System.currentTimeMillis());
+    }
+
+    private Map<String, Object> snapshot(long now) {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        histograms.forEach((stage, histogram) -> {
+            if (histogram.getCount() > 0) {
+                stages.put(histogram.getName(), toMap(histogram));
+            }
+        });
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("windowStart", windowStart);
+        snapshot.put("windowEnd", now);
+        snapshot.put("stages", stages);
+        return snapshot;
+    }
+
+    /**
+     * @return count and milliseconds of the histogram.
+     */
+    public static Map<String, Object> toMap(LatencyHistogram histogram) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", histogram.getCount());
+        map.put("mean", histogram.getMean());
+        map.put("p50", histogram.getPercentile(50));
+        map.put("p90", histogram.getPercentile(90));
+        map.put("p99", histogram.getPercentile(99));
+        map.put("max", histogram.getMax());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        histograms.values().stream().filter(histogram -> histogram.getCount() > 0).forEach(histogram -> builder.append(builder.length() > 0 ? "; " : "").append(histogram));
+        return builder.toString();
+    }
+}
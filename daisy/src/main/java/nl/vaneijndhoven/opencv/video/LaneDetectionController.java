@@ -41,6 +41,8 @@ public class LaneDetectionController {
 
     private boolean emergencyStopActivated = false;
 
+    private ImageLaneDetection laneDetection;
+
     public LaneDetectionController(Vertx vertx) {
         this.vertx = vertx;
         initDefaults();
@@ -53,8 +55,12 @@ public class LaneDetectionController {
     }
 
     public void performLaneDetection(Mat originalImage, CannyEdgeDetector.Config cannyConfig, ProbabilisticHoughLinesLineDetector.Config lineDetectorConfig, ImageCollector collector) {
-        ImageLaneDetection laneDetect = new ImageLaneDetection(cannyConfig, lineDetectorConfig);
-        Map<String, Object> laneDetectResult = laneDetect.detectLane(originalImage, collector);
+        if (laneDetection == null) {
+            laneDetection = new ImageLaneDetection(cannyConfig, lineDetectorConfig);
+        }
+        laneDetection.setCannyConfig(cannyConfig);
+        laneDetection.setLineDetectorConfig(lineDetectorConfig);
+        Map<String, Object> laneDetectResult = laneDetection.detectLane(originalImage, collector);
 
         double distanceToStoppingZoneStart = (double) laneDetectResult.get("distanceToStoppingZone");
         double distanceToStoppingZoneEnd = (double) laneDetectResult.get("distanceToStoppingZoneEnd");
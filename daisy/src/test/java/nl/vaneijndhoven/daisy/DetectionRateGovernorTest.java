@@ -0,0 +1,116 @@
+package nl.vaneijndhoven.daisy;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionRateGovernorTest {
+
+    private static final long MIN = 20;
+    private static final long MAX = 200;
+
+    @Test
+    public void startsAtTheCeiling() {
+        assertEquals(MAX, new DetectionRateGovernor(MIN, MAX).nextInterval());
+    }
+
+    @Test
+    public void decreasesAdditivelyDownToTheFloor() {
+        DetectionRateGovernor governor = new DetectionRateGovernor(MIN, MAX);
+
+        // processing 10ms plus headroom is below the floor, each frame in time takes one step of (200 - 20) / 20
+        long previous = governor.nextInterval();
+        for (int i = 0; i < 30; i++) {
+            process(governor, 10);
+            long interval = governor.nextInterval();
+            assertEquals(Math.max(MIN, previous - 9), interval);
+            previous = interval;
+        }
+
+        assertEquals(MIN, governor.nextInterval());
+        assertEquals(30, governor.getProcessed());
+    }
+
+    @Test
+    public void settlesAtProcessingTimePlusHeadroom() {
+        DetectionRateGovernor governor = new DetectionRateGovernor(MIN, MAX);
+
+        for (int i = 0; i < 50; i++) {
+            process(governor, 80);
+        }
+
+        assertEquals(100, governor.nextInterval());
+    }
+
+    @Test
+    public void followsSlowerProcessingUpAtOnce() {
+        DetectionRateGovernor governor = new DetectionRateGovernor(MIN, MAX);
+        for (int i = 0; i < 30; i++) {
+            process(governor, 10);
+        }
+
+        // smoothed processing time 10 + 0.2 * (100 - 10) = 28ms, plus headroom
+        process(governor, 100);
+
+        assertEquals(35, governor.nextInterval());
+    }
+
+    @Test
+    public void backsOffMultiplicativelyWhileBusy() {
+        DetectionRateGovernor governor = new DetectionRateGovernor(MIN, MAX);
+        for (int i = 0; i < 30; i++) {
+            process(governor, 10);
+        }
+
+        assertTrue(governor.tryStart());
+        assertFalse(governor.tryStart());
+        assertEquals(30, governor.nextInterval());
+        assertFalse(governor.tryStart());
+        assertEquals(45, governor.nextInterval());
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(governor.tryStart());
+        }
+        assertEquals(MAX, governor.nextInterval());
+        assertEquals(12, governor.getSkipped());
+    }
+
+    @Test
+    public void allowsConfiguredFramesInFlight() {
+        DetectionRateGovernor governor = new DetectionRateGovernor(MIN, MAX, 2);
+
+        assertTrue(governor.tryStart());
+        assertTrue(governor.tryStart());
+        assertFalse(governor.tryStart());
+
+        governor.completed(10, TimeUnit.MILLISECONDS);
+        assertTrue(governor.tryStart());
+    }
+
+    @Test
+    public void cancelReturnsTheSlotWithoutAdapting() {
+        DetectionRateGovernor governor = new DetectionRateGovernor(MIN, MAX);
+
+        assertTrue(governor.tryStart());
+        governor.cancel();
+        assertTrue(governor.tryStart());
+
+        assertEquals(MAX, governor.nextInterval());
+        assertEquals(0, governor.getProcessed());
+        assertEquals(0, governor.getSkipped());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFloorAboveCeiling() {
+        new DetectionRateGovernor(MAX, MIN);
+    }
+
+    private static void process(DetectionRateGovernor governor, long millis) {
+        assertTrue(governor.tryStart());
+        governor.completed(millis, TimeUnit.MILLISECONDS);
+    }
+}
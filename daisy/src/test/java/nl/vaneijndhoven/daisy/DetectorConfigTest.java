@@ -0,0 +1,51 @@
+package nl.vaneijndhoven.daisy;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DetectorConfigTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void partialCannyUpdateKeepsOtherValues() {
+        DetectorConfig config = DetectorConfig.DEFAULT.withCanny(new JsonObject().put("threshold1", 40d));
+
+        assertEquals(40, config.getCanny().getThreshold1(), DELTA);
+        assertEquals(DetectorConfig.DEFAULT.getCanny().getThreshold2(), config.getCanny().getThreshold2(), DELTA);
+        assertSame(DetectorConfig.DEFAULT.getHough(), config.getHough());
+        assertEquals(DetectorConfig.DEFAULT.getVersion() + 1, config.getVersion());
+    }
+
+    @Test
+    public void partialHoughUpdateKeepsOtherValues() {
+        DetectorConfig config = DetectorConfig.DEFAULT
+                .withHough(new JsonObject().put("threshold", 30).put("maxLineGap", 50d))
+                .withHough(new JsonObject().put("minLineLength", 25d));
+
+        assertEquals(30, config.getHough().getThreshold());
+        assertEquals(50, config.getHough().getMaxLineGap(), DELTA);
+        assertEquals(25, config.getHough().getMinLineLength(), DELTA);
+        assertEquals(DetectorConfig.DEFAULT.getHough().getRho(), config.getHough().getRho(), DELTA);
+        assertEquals(DetectorConfig.DEFAULT.getHough().getTheta(), config.getHough().getTheta(), DELTA);
+        assertEquals(DetectorConfig.DEFAULT.getVersion() + 2, config.getVersion());
+    }
+
+    @Test
+    public void updateLeavesSnapshotUnchanged() {
+        DetectorConfig config = DetectorConfig.DEFAULT.withCanny(new JsonObject().put("threshold1", 10d).put("threshold2", 20d));
+        config.withCanny(new JsonObject().put("threshold1", 99d));
+
+        assertEquals(10, config.getCanny().getThreshold1(), DELTA);
+        assertEquals(20, config.getCanny().getThreshold2(), DELTA);
+    }
+
+    @Test
+    public void streamConfigWithoutCannyOrHoughIsTheSameSnapshot() {
+        assertSame(DetectorConfig.DEFAULT, DetectorConfig.DEFAULT.with(null));
+        assertSame(DetectorConfig.DEFAULT, DetectorConfig.DEFAULT.with(new JsonObject().put("interval", 100)));
+    }
+}
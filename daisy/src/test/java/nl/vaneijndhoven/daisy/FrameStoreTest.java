@@ -0,0 +1,203 @@
+package nl.vaneijndhoven.daisy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames without a lease, only their sequence numbers and reference counts matter here.
+ */
+public class FrameStoreTest {
+
+    private static final String SOURCE = "camera-1";
+    private static final String OTHER_SOURCE = "camera-2";
+    private static final String DERIVED = "derived";
+
+    @Test
+    public void acquiresTheNewestFrame() {
+        FrameStore store = new FrameStore();
+        assertNull(store.acquire(SOURCE, FrameStore.CAMERA));
+
+        store.publish(SOURCE, FrameStore.CAMERA, frame(1));
+        store.publish(SOURCE, FrameStore.CAMERA, frame(2));
+
+        try (Frame newest = store.acquire(SOURCE, FrameStore.CAMERA)) {
+            assertEquals(2, newest.getSequence());
+        }
+        try (Frame older = store.acquire(SOURCE, FrameStore.CAMERA, 1)) {
+            assertEquals(1, older.getSequence());
+        }
+    }
+
+    @Test
+    public void evictsBeyondDepth() {
+        FrameStore store = new FrameStore(2);
+        Frame first = frame(1);
+        Frame held = frame(2);
+        store.publish(SOURCE, FrameStore.CAMERA, first);
+        store.publish(SOURCE, FrameStore.CAMERA, held);
+        Frame reader = store.acquire(SOURCE, FrameStore.CAMERA, 2);
+
+        store.publish(SOURCE, FrameStore.CAMERA, frame(3));
+        store.publish(SOURCE, FrameStore.CAMERA, frame(4));
+
+        assertNull(store.acquire(SOURCE, FrameStore.CAMERA, 1));
+        assertNull(store.acquire(SOURCE, FrameStore.CAMERA, 2));
+        assertFalse(first.tryRetain());
+        // a reader keeps an evicted frame until it closes it
+        assertSame(held, reader);
+        assertTrue(held.tryRetain());
+        held.close();
+        reader.close();
+        assertFalse(held.tryRetain());
+    }
+
+    @Test
+    public void clearReleasesStoredFrames() {
+        FrameStore store = new FrameStore();
+        Frame frame = frame(1);
+        store.publish(SOURCE, FrameStore.CAMERA, frame);
+
+        store.clear();
+
+        assertNull(store.acquire(SOURCE, FrameStore.CAMERA));
+        assertFalse(frame.tryRetain());
+    }
+
+    @Test
+    public void derivesOncePerSequence() {
+        FrameStore store = new FrameStore();
+        AtomicInteger derivations = new AtomicInteger();
+        store.derive(DERIVED, FrameStore.CAMERA, source -> {
+            derivations.incrementAndGet();
+            return source.derive(null);
+        });
+
+        assertNull(store.acquire(SOURCE, DERIVED));
+        assertEquals(0, derivations.get());
+
+        store.publish(SOURCE, FrameStore.CAMERA, frame(1));
+        for (int i = 0; i < 3; i++) {
+            try (Frame derived = store.acquire(SOURCE, DERIVED)) {
+                assertEquals(1, derived.getSequence());
+            }
+        }
+        assertEquals(1, derivations.get());
+
+        store.publish(SOURCE, FrameStore.CAMERA, frame(2));
+        try (Frame derived = store.acquire(SOURCE, DERIVED)) {
+            assertEquals(2, derived.getSequence());
+        }
+        assertEquals(2, derivations.get());
+    }
+
+    @Test
+    public void derivationDoesNotCloseItsSource() {
+        FrameStore store = new FrameStore();
+        store.derive(DERIVED, FrameStore.CAMERA, source -> source.derive(null));
+        Frame camera = frame(1);
+        store.publish(SOURCE, FrameStore.CAMERA, camera);
+
+        store.acquire(SOURCE, DERIVED).close();
+
+        try (Frame stored = store.acquire(SOURCE, FrameStore.CAMERA)) {
+            assertSame(camera, stored);
+        }
+    }
+
+    @Test
+    public void concurrentReadersShareOneDerivation() throws Exception {
+        int readers = 8;
+        FrameStore store = new FrameStore();
+        AtomicInteger derivations = new AtomicInteger();
+        store.derive(DERIVED, FrameStore.CAMERA, source -> {
+            derivations.incrementAndGet();
+            sleep(20);
+            return source.derive(null);
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+
+        try {
+            for (long sequence = 1; sequence <= 5; sequence++) {
+                store.publish(SOURCE, FrameStore.CAMERA, frame(sequence));
+
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Long>> results = new ArrayList<>();
+                for (int i = 0; i < readers; i++) {
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        try (Frame derived = store.acquire(SOURCE, DERIVED)) {
+                            return derived.getSequence();
+                        }
+                    }));
+                }
+                start.countDown();
+
+                for (Future<Long> result : results) {
+                    assertEquals(sequence, (long) result.get(5, TimeUnit.SECONDS));
+                }
+                assertEquals(sequence, derivations.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keepsSourcesApart() {
+        FrameStore store = new FrameStore();
+        store.derive(DERIVED, FrameStore.CAMERA, source -> source.derive(null));
+        store.publish(SOURCE, FrameStore.CAMERA, frame(1));
+        store.publish(OTHER_SOURCE, FrameStore.CAMERA, frame(7));
+
+        try (Frame first = store.acquire(SOURCE, FrameStore.CAMERA); Frame other = store.acquire(OTHER_SOURCE, FrameStore.CAMERA)) {
+            assertEquals(1, first.getSequence());
+            assertEquals(7, other.getSequence());
+        }
+        try (Frame first = store.acquire(SOURCE, DERIVED); Frame other = store.acquire(OTHER_SOURCE, DERIVED)) {
+            assertEquals(1, first.getSequence());
+            assertEquals(7, other.getSequence());
+        }
+        assertEquals(OTHER_SOURCE, store.lastSource());
+    }
+
+    @Test
+    public void wantedWhileRead() throws Exception {
+        FrameStore store = new FrameStore(2, 50, TimeUnit.MILLISECONDS);
+        assertFalse(store.wanted(SOURCE, FrameStore.LANE));
+
+        // a reader asking before anything is published still gets the producer going
+        assertNull(store.acquire(SOURCE, FrameStore.LANE));
+        assertTrue(store.wanted(SOURCE, FrameStore.LANE));
+        assertFalse(store.wanted(SOURCE, FrameStore.EDGES));
+        assertFalse(store.wanted(OTHER_SOURCE, FrameStore.LANE));
+
+        Thread.sleep(100);
+        assertFalse(store.wanted(SOURCE, FrameStore.LANE));
+    }
+
+    private static Frame frame(long sequence) {
+        return new Frame(null, sequence, System.nanoTime(), System.currentTimeMillis());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package nl.vaneijndhoven.daisy;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames without a lease, only their sequence numbers and reference counts matter here.
+ */
+public class LatestFrameBufferTest {
+
+    @Test
+    public void acquiresOnlyNewerFrames() {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        assertNull(buffer.acquire(0));
+
+        Frame frame = frame(1);
+        buffer.put(frame);
+
+        assertTrue(buffer.hasFrame(0));
+        assertFalse(buffer.hasFrame(1));
+        assertNull(buffer.acquire(1));
+        try (Frame acquired = buffer.acquire(0)) {
+            assertSame(frame, acquired);
+        }
+    }
+
+    @Test
+    public void consumerSkipsToTheNewestFrame() {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        Frame first = frame(1);
+        Frame second = frame(2);
+        Frame third = frame(3);
+        buffer.put(first);
+        buffer.put(second);
+        buffer.put(third);
+
+        try (Frame acquired = buffer.acquire(0)) {
+            assertSame(third, acquired);
+        }
+
+        assertEquals(3, buffer.getCaptured());
+        assertEquals(1, buffer.getConsumed());
+        assertEquals(2, buffer.getOverwritten());
+        // overwritten frames are released by the buffer
+        assertFalse(first.tryRetain());
+        assertFalse(second.tryRetain());
+    }
+
+    @Test
+    public void consumersSkipIndependently() {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        buffer.put(frame(1));
+
+        Frame fast = buffer.acquire(0);
+        fast.close();
+        buffer.put(frame(2));
+        Frame fastAgain = buffer.acquire(fast.getSequence());
+        Frame slow = buffer.acquire(0);
+
+        assertEquals(2, fastAgain.getSequence());
+        assertSame(fastAgain, slow);
+        assertEquals(2, slow.getAcquisitions());
+        // frame 1 was seen before it was overwritten
+        assertEquals(0, buffer.getOverwritten());
+
+        fastAgain.close();
+        slow.close();
+    }
+
+    @Test
+    public void acquiredFrameOutlivesOverwrite() {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        Frame frame = frame(1);
+        buffer.put(frame);
+
+        Frame acquired = buffer.acquire(0);
+        buffer.put(frame(2));
+
+        // still held by the consumer
+        assertTrue(acquired.tryRetain());
+        acquired.close();
+        acquired.close();
+        assertFalse(frame.tryRetain());
+    }
+
+    @Test
+    public void clearReleasesTheSlot() {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        Frame frame = frame(1);
+        buffer.put(frame);
+
+        buffer.clear();
+
+        assertNull(buffer.acquire(0));
+        assertFalse(frame.tryRetain());
+    }
+
+    @Test
+    public void waitsForTheNextFrame() throws Exception {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        CompletableFuture<Frame> consumer = CompletableFuture.supplyAsync(() -> buffer.acquire(0, 5, TimeUnit.SECONDS));
+
+        Thread.sleep(50);
+        buffer.put(frame(1));
+
+        try (Frame acquired = consumer.get(5, TimeUnit.SECONDS)) {
+            assertEquals(1, acquired.getSequence());
+        }
+    }
+
+    @Test
+    public void waitGivesUpAfterTimeout() {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        buffer.put(frame(1));
+
+        long start = System.nanoTime();
+        assertNull(buffer.acquire(1, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void producerWaitsForAllConsumers() throws Exception {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        Frame frame = frame(1);
+        buffer.put(frame);
+        CompletableFuture<Boolean> producer = CompletableFuture.supplyAsync(() -> buffer.awaitAcquired(frame, () -> 2, () -> true));
+
+        buffer.acquire(0).close();
+        Thread.sleep(50);
+        assertFalse(producer.isDone());
+        buffer.acquire(0).close();
+
+        assertTrue(producer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void producerStopsWaitingWhenConditionFails() {
+        LatestFrameBuffer buffer = new LatestFrameBuffer();
+        Frame frame = frame(1);
+        buffer.put(frame);
+
+        assertFalse(buffer.awaitAcquired(frame, () -> 1, () -> false));
+    }
+
+    private static Frame frame(long sequence) {
+        return new Frame(null, sequence, System.nanoTime(), System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,301 @@
+package nl.vaneijndhoven.daisy;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the Raspberry Pi camera web interface, serves JPEGs (the frames of a recorded video, or any bytes
+ * given by a test) as an MJPEG stream (<code>/stream</code>) and as single JPEG snapshots (any other path). Frames
+ * are served in order, a burst of frames at a time with a pause in between.
+ *
+ * The way the stream is written can be changed to put {@link MjpegSource} to the test: in small chunks, so
+ * boundaries are split over reads, without Content-Length headers, with bare LF line breaks, or closing the
+ * connection after a number of frames, possibly in the middle of the next part.
+ *
+ * Usage: MjpegFileServer &lt;video file&gt; [port]
+ */
+public class MjpegFileServer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MjpegFileServer.class);
+
+    static final String BOUNDARY = "dukesframe";
+
+    private final List<byte[]> frames;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private ServerSocket serverSocket;
+
+    private long interval = 40;
+    private int burst = 1;
+    private int chunkSize = 0;
+    private boolean contentLength = true;
+    private String lineBreak = "\r\n";
+    private int closeAfter = -1;
+    private boolean closeMidPart = false;
+
+    public MjpegFileServer(List<byte[]> frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * @return the frames of the video, encoded as JPEG, with the pause between frames set to the frame rate.
+     */
+    public static MjpegFileServer recorded(String file) throws IOException {
+        VideoCapture capture = new VideoCapture(file);
+        double fps = capture.get(Videoio.CAP_PROP_FPS);
+
+        List<byte[]> frames = new ArrayList<>();
+        Mat frame = new Mat();
+        MatOfByte jpeg = new MatOfByte();
+        while (capture.read(frame)) {
+            Imgcodecs.imencode(".jpg", frame, jpeg);
+            frames.add(jpeg.toArray());
+        }
+        frame.release();
+        jpeg.release();
+        capture.release();
+
+        if (frames.isEmpty()) {
+            throw new IOException("No frames in " + file);
+        }
+
+        return new MjpegFileServer(frames).withInterval(Math.round(1000 / (fps > 0 ? fps : 25)));
+    }
+
+    /**
+     * @param interval pause between bursts of frames, in milliseconds.
+     */
+    public MjpegFileServer withInterval(long interval) {
+        this.interval = interval;
+        return this;
+    }
+
+    /**
+     * @param burst frames of the stream written at once, in a single write.
+     */
+    public MjpegFileServer withBurst(int burst) {
+        this.burst = burst;
+        return this;
+    }
+
+    /**
+     * @param chunkSize write the stream in chunks of this many bytes, with a short pause after each chunk.
+     */
+    public MjpegFileServer withChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Leaves out the Content-Length header of the parts of the stream, a part ends at the next boundary.
+     */
+    public MjpegFileServer withoutContentLength() {
+        this.contentLength = false;
+        return this;
+    }
+
+    /**
+     * @param lineBreak line break written between a part and the next boundary.
+     */
+    public MjpegFileServer withLineBreak(String lineBreak) {
+        this.lineBreak = lineBreak;
+        return this;
+    }
+
+    /**
+     * @param frames close a stream connection after this many frames, 0 closes it right after the response headers.
+     */
+    public MjpegFileServer closeAfter(int frames) {
+        this.closeAfter = frames;
+        return this;
+    }
+
+    /**
+     * When a stream connection is closed (see {@link #closeAfter}), writes the headers and half the content of the
+     * next part first.
+     */
+    public MjpegFileServer closeMidPart() {
+        this.closeMidPart = true;
+        return this;
+    }
+
+    public MjpegFileServer start(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(this::accept, "mjpeg-server-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        LOG.info("Serving " + frames.size() + " frames on port " + getPort());
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String url(String path) {
+        return "http://localhost:" + getPort() + path;
+    }
+
+    public byte[] frame(long index) {
+        return frames.get((int) (index % frames.size()));
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread connection = new Thread(() -> serve(socket), "mjpeg-connection-" + socket.getPort());
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.warn("Error accepting connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket client = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = client.getOutputStream();
+
+            String request;
+            while ((request = in.readLine()) != null) {
+                requests.incrementAndGet();
+                boolean keepAlive = false;
+                String header;
+                while ((header = in.readLine()) != null && !header.isEmpty()) {
+                    keepAlive |= header.equalsIgnoreCase("Connection: keep-alive");
+                }
+
+                if (request.split(" ")[1].startsWith("/stream")) {
+                    stream(out);
+                    return;
+                }
+
+                snapshot(out, keepAlive);
+                if (!keepAlive) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug("Connection closed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stream(OutputStream out) throws IOException, InterruptedException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write(ascii("HTTP/1.0 200 OK\r\n"
+                + "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n"
+                + "\r\n"));
+
+        int served = 0;
+        while (closeAfter < 0 || served < closeAfter) {
+            for (int i = 0; i < burst && (closeAfter < 0 || served < closeAfter); i++, served++) {
+                byte[] jpeg = frame(next.getAndIncrement());
+                part(response, jpeg);
+                response.write(jpeg);
+                response.write(ascii(lineBreak));
+            }
+
+            write(out, response.toByteArray());
+            response.reset();
+
+            if (closeAfter < 0 || served < closeAfter) {
+                Thread.sleep(interval);
+            }
+        }
+
+        if (closeMidPart) {
+            byte[] jpeg = frame(next.get());
+            part(response, jpeg);
+            response.write(jpeg, 0, jpeg.length / 2);
+        }
+        write(out, response.toByteArray());
+    }
+
+    private void part(ByteArrayOutputStream response, byte[] jpeg) throws IOException {
+        response.write(ascii("--" + BOUNDARY + "\r\n"
+                + "Content-Type: image/jpeg\r\n"
+                + (contentLength ? "Content-Length: " + jpeg.length + "\r\n" : "")
+                + "\r\n"));
+    }
+
+    private void snapshot(OutputStream out, boolean keepAlive) throws IOException, InterruptedException {
+        byte[] jpeg = frame(next.getAndIncrement());
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write(ascii("HTTP/1.0 200 OK\r\n"
+                + "Content-Type: image/jpeg\r\n"
+                + "Content-Length: " + jpeg.length + "\r\n"
+                + (keepAlive ? "Connection: keep-alive\r\n" : "")
+                + "\r\n"));
+        response.write(jpeg);
+        write(out, response.toByteArray());
+    }
+
+    private void write(OutputStream out, byte[] bytes) throws IOException, InterruptedException {
+        if (chunkSize <= 0) {
+            out.write(bytes);
+            out.flush();
+            return;
+        }
+
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            out.write(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            out.flush();
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static void main(String... args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: MjpegFileServer <video file> [port]");
+            System.exit(1);
+        }
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        recorded(args[0]).start(args.length > 1 ? Integer.parseInt(args[1]) : 8090);
+        Thread.currentThread().join();
+    }
+}
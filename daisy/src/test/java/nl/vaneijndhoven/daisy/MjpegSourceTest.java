@@ -0,0 +1,136 @@
+package nl.vaneijndhoven.daisy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link MjpegSource} through a {@link MjpegFileServer} on a local port. The served "JPEGs" are never
+ * decoded, only the bytes that were kept are compared, so no native OpenCV library is needed.
+ */
+public class MjpegSourceTest {
+
+    private static final long TIMEOUT = 1000;
+
+    private MjpegFileServer server;
+    private MjpegSource source;
+
+    @After
+    public void tearDown() throws IOException {
+        if (source != null) {
+            source.release();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void parsesBoundariesSplitOverReads() throws IOException {
+        server = new MjpegFileServer(frames(3)).withChunkSize(5).withInterval(5).start(0);
+        source = new MjpegSource(server.url("/stream"), 1, TIMEOUT);
+
+        for (int i = 0; i < 6; i++) {
+            assertTrue(source.grab());
+            assertArrayEquals(server.frame(source.getReceived() - 1), source.getLatest());
+        }
+    }
+
+    @Test
+    public void keepsOnlyTheNewestJpeg() throws IOException {
+        server = new MjpegFileServer(frames(5)).withBurst(3).withInterval(10000).start(0);
+        source = new MjpegSource(server.url("/stream"), 1, TIMEOUT);
+
+        assertTrue(source.grab());
+        assertEquals(3, source.getReceived());
+        assertEquals(2, source.getSkipped());
+        assertArrayEquals(server.frame(2), source.getLatest());
+    }
+
+    @Test
+    public void requestsSnapshotsAgainOverKeepAliveConnection() throws IOException {
+        server = new MjpegFileServer(frames(3)).start(0);
+        source = new MjpegSource(server.url("/html/cam_pic.php"), 1, TIMEOUT);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(source.grab());
+            assertArrayEquals(server.frame(i), source.getLatest());
+        }
+
+        assertEquals(4, source.getReceived());
+        assertEquals(4, server.getRequests());
+        assertEquals(1, server.getConnections());
+    }
+
+    @Test
+    public void reconnectsWhenServerClosesConnection() throws IOException {
+        server = new MjpegFileServer(frames(5)).closeAfter(2).withInterval(5).start(0);
+        source = new MjpegSource(server.url("/stream"), 1, TIMEOUT);
+
+        while (source.getReceived() < 4) {
+            assertTrue(source.grab());
+            assertArrayEquals(server.frame(source.getReceived() - 1), source.getLatest());
+        }
+
+        assertEquals(4, source.getReceived());
+        assertEquals(2, server.getConnections());
+    }
+
+    @Test(timeout = 5000)
+    public void givesUpWhenServerKeepsClosingMidPart() throws IOException {
+        server = new MjpegFileServer(frames(3)).closeAfter(0).closeMidPart().start(0);
+        source = new MjpegSource(server.url("/stream"), 1, TIMEOUT);
+
+        assertFalse(source.grab());
+        assertEquals(0, source.getReceived());
+        // the first connection and three reconnects
+        assertEquals(4, server.getConnections());
+    }
+
+    @Test
+    public void partWithoutContentLengthEndsAtCrLfBeforeBoundary() throws IOException {
+        assertPartsWithoutContentLength("\r\n");
+    }
+
+    @Test
+    public void partWithoutContentLengthEndsAtBareLfBeforeBoundary() throws IOException {
+        assertPartsWithoutContentLength("\n");
+    }
+
+    /**
+     * Without a Content-Length a part only ends at the next boundary, of a burst of three frames the last one is not
+     * complete yet.
+     */
+    private void assertPartsWithoutContentLength(String lineBreak) throws IOException {
+        server = new MjpegFileServer(frames(3)).withoutContentLength().withLineBreak(lineBreak).withBurst(3).withInterval(10000).start(0);
+        source = new MjpegSource(server.url("/stream"), 1, TIMEOUT);
+
+        assertTrue(source.grab());
+        assertEquals(2, source.getReceived());
+        assertArrayEquals(server.frame(1), source.getLatest());
+    }
+
+    /**
+     * Frames of different lengths, with line breaks and a partial boundary in the content.
+     */
+    private static List<byte[]> frames(int count) {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder frame = new StringBuilder("jpeg " + i + "\r\n--dukes\n");
+            for (int j = 0; j < 10 * (i + 1); j++) {
+                frame.append((char) ('a' + j % 26));
+            }
+            frames.add(frame.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,57 @@
+package nl.vaneijndhoven.daisy;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamOptionsTest {
+
+    @Test
+    public void missingConfigUsesDefaults() {
+        StreamOptions options = StreamOptions.of(null);
+
+        assertEquals(ImageFetcher.CaptureMode.GRAB, options.getCaptureMode());
+        assertTrue(options.getLaneResolution().isNone());
+        assertTrue(options.getPreprocessor().isNone());
+        assertFalse(options.isLossless());
+        assertFalse(options.isSplitFields() || options.isTracking() || options.isSlidingWindows() || options.isAutoTune());
+        assertFalse(options.isStartLightWatch() || options.isStartLightRegionAuto());
+        assertEquals("capture grab, source videocapture, resolution lane full, start light full, preprocess none", options.toString());
+    }
+
+    @Test
+    public void parsesStreamConfig() {
+        StreamOptions options = StreamOptions.of(new JsonObject()
+                .put("capture", "read")
+                .put("sourceType", "replay")
+                .put("replay", "max")
+                .put("resolution", new JsonObject().put("lane", "half"))
+                .put("splitFields", true)
+                .put("lineDetector", "slidingWindow")
+                .put("startLight", "watch")
+                .put("startLightRegion", "auto"));
+
+        assertEquals(ImageFetcher.CaptureMode.READ, options.getCaptureMode());
+        assertTrue(options.isLossless());
+        assertEquals(2, options.getLaneResolution().getFactor());
+        assertTrue(options.getStartLightResolution().isNone());
+        assertTrue(options.isSplitFields());
+        assertFalse(options.isTracking());
+        assertTrue(options.isSlidingWindows());
+        assertTrue(options.isStartLightWatch());
+        assertTrue(options.isStartLightRegionAuto());
+        assertTrue(options.toString(), options.toString().endsWith("split fields, sliding windows, start light watch, start light region auto"));
+    }
+
+    @Test
+    public void governorIntervalsFallBackToDetectorDefaults() {
+        assertTrue(StreamOptions.of(null).governor(20, 200).toString().contains("(20 - 200)"));
+        assertTrue(StreamOptions.of(new JsonObject().put("interval", 50)).governor(20, 200).toString().contains("(20 - 50)"));
+        // a ceiling below the default floor lowers the floor along
+        assertTrue(StreamOptions.of(new JsonObject().put("interval", 10)).governor(20, 200).toString().contains("(10 - 10)"));
+        assertTrue(StreamOptions.of(new JsonObject().put("minInterval", 40)).governor(20, 200).toString().contains("(40 - 200)"));
+    }
+}
@@ -0,0 +1,198 @@
+package nl.vaneijndhoven.opencv.lanedetection;
+
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.geometry.Point;
+import nl.vaneijndhoven.objects.Lane;
+import nl.vaneijndhoven.objects.ViewPort;
+import org.junit.Test;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Only the tracking itself, {@link LaneTracker#mask} draws into a native buffer.
+ */
+public class LaneTrackerTest {
+
+    private static final double WIDTH = 400;
+    private static final double HEIGHT = 200;
+    private static final ViewPort VIEW_PORT = new ViewPort(new Point(0, 0), WIDTH, HEIGHT);
+    private static final int MAX_MISSES = 3;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void locksOnceBothBoundariesAreFound() {
+        LaneTracker tracker = new LaneTracker(30, MAX_MISSES);
+        assertFalse(tracker.isLocked());
+        assertTrue(tracker.windows(new Size(WIDTH, HEIGHT), 1).isEmpty());
+
+        tracker.predict();
+        tracker.update(lane(Optional.of(boundary(100, 150)), Optional.empty()), VIEW_PORT);
+        assertFalse(tracker.isLocked());
+
+        tracker.predict();
+        Lane tracked = tracker.update(lane(100, 150, 300, 250), VIEW_PORT);
+        assertTrue(tracker.isLocked());
+
+        // a new track starts at the measurement
+        assertEquals(Optional.of(boundary(300, 250)), tracked.getRightBoundary());
+    }
+
+    @Test
+    public void measuredLineDirectionDoesNotMatter() {
+        LaneTracker upwards = new LaneTracker(30, MAX_MISSES);
+        LaneTracker downwards = new LaneTracker(30, MAX_MISSES);
+
+        Lane up = upwards.update(lane(100, 150, 300, 250), VIEW_PORT);
+        Lane down = downwards.update(new Lane(
+                Optional.of(new Line(new Point(150, 0), new Point(100, HEIGHT))),
+                Optional.of(new Line(new Point(250, 0), new Point(300, HEIGHT)))), VIEW_PORT);
+
+        assertEquals(up.getLeftBoundary(), down.getLeftBoundary());
+        assertEquals(up.getRightBoundary(), down.getRightBoundary());
+    }
+
+    @Test
+    public void followsConstantVelocity() {
+        LaneTracker tracker = new LaneTracker(30, MAX_MISSES);
+
+        Lane tracked = null;
+        for (int frame = 0; frame < 50; frame++) {
+            tracker.predict();
+            tracked = tracker.update(lane(100 + 2 * frame, 150 + frame, 300 - 2 * frame, 250 - frame), VIEW_PORT);
+        }
+
+        assertBoundary(198, 199, tracked.getLeftBoundary(), 0.5);
+        assertBoundary(202, 201, tracked.getRightBoundary(), 0.5);
+    }
+
+    @Test
+    public void smoothsMeasurementNoise() {
+        LaneTracker tracker = new LaneTracker(30, MAX_MISSES);
+
+        Lane tracked = null;
+        for (int frame = 0; frame < 50; frame++) {
+            double noise = frame % 2 == 0 ? 10 : -10;
+            tracker.predict();
+            tracked = tracker.update(lane(100 + noise, 150 + noise, 300 + noise, 250 + noise), VIEW_PORT);
+        }
+
+        assertBoundary(100, 150, tracked.getLeftBoundary(), 5);
+        assertBoundary(300, 250, tracked.getRightBoundary(), 5);
+    }
+
+    @Test
+    public void predictsThroughMissesThenDropsTheTrack() {
+        LaneTracker tracker = new LaneTracker(30, MAX_MISSES);
+        for (int frame = 0; frame < 50; frame++) {
+            tracker.predict();
+            tracker.update(lane(100 + 2 * frame, 150, 300, 250), VIEW_PORT);
+        }
+
+        Lane missing = lane(Optional.empty(), Optional.empty());
+        for (int miss = 1; miss <= MAX_MISSES; miss++) {
+            tracker.predict();
+            Lane predicted = tracker.update(missing, VIEW_PORT);
+
+            assertTrue(tracker.isLocked());
+            assertBoundary(198 + 2 * miss, 150, predicted.getLeftBoundary(), 0.5);
+            assertBoundary(300, 250, predicted.getRightBoundary(), 0.5);
+        }
+
+        tracker.predict();
+        Lane dropped = tracker.update(missing, VIEW_PORT);
+
+        assertFalse(tracker.isLocked());
+        assertFalse(dropped.getLeftBoundary().isPresent());
+        assertFalse(dropped.getRightBoundary().isPresent());
+        assertTrue(tracker.windows(new Size(WIDTH, HEIGHT), 1).isEmpty());
+    }
+
+    @Test
+    public void findingABoundaryAgainResetsTheMisses() {
+        LaneTracker tracker = new LaneTracker(30, MAX_MISSES);
+        tracker.update(lane(100, 150, 300, 250), VIEW_PORT);
+
+        for (int frame = 0; frame < 3 * MAX_MISSES; frame++) {
+            tracker.predict();
+            Lane rightOnly = frame % MAX_MISSES == 0
+                    ? lane(100, 150, 300, 250)
+                    : lane(Optional.empty(), Optional.of(boundary(300, 250)));
+            tracker.update(rightOnly, VIEW_PORT);
+            assertTrue(tracker.isLocked());
+        }
+    }
+
+    @Test
+    public void windowsCoverTheBandsAroundThePredictedBoundaries() {
+        double band = 30;
+        double scale = 0.5;
+        Size size = new Size(WIDTH * scale, HEIGHT * scale);
+        LaneTracker tracker = new LaneTracker(band, MAX_MISSES);
+        tracker.update(lane(100, 150, 300, 250), VIEW_PORT);
+
+        List<Rect> windows = tracker.windows(size, scale);
+
+        assertEquals(16, windows.size());
+        for (Rect window : windows) {
+            assertTrue(window.x >= 0 && window.x + window.width <= size.width);
+            assertTrue(window.y >= 0 && window.y + window.height <= size.height);
+        }
+
+        // every point within the band of a boundary is inside a window, in image coordinates
+        for (int y = 0; y < size.height; y++) {
+            double fraction = y / size.height;
+            for (double x : new double[]{150 + (100 - 150) * fraction, 250 + (300 - 250) * fraction}) {
+                for (double offset = -band + 1; offset < band; offset += 1) {
+                    Point point = new Point((x + offset) * scale, y);
+                    assertTrue(point.toString(), windows.stream().anyMatch(window -> contains(window, point)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void resetDropsBothTracks() {
+        LaneTracker tracker = new LaneTracker(30, MAX_MISSES);
+        tracker.update(lane(100, 150, 300, 250), VIEW_PORT);
+        assertTrue(tracker.isLocked());
+
+        tracker.reset();
+
+        assertFalse(tracker.isLocked());
+    }
+
+    private static boolean contains(Rect window, Point point) {
+        return point.getX() >= window.x && point.getX() <= window.x + window.width
+                && point.getY() >= window.y && point.getY() <= window.y + window.height;
+    }
+
+    private static void assertBoundary(double bottom, double top, Optional<Line> boundary, double delta) {
+        assertTrue(boundary.isPresent());
+        assertEquals(bottom, boundary.get().getPoint1().getX(), delta);
+        assertEquals(HEIGHT, boundary.get().getPoint1().getY(), DELTA);
+        assertEquals(top, boundary.get().getPoint2().getX(), delta);
+        assertEquals(0, boundary.get().getPoint2().getY(), DELTA);
+    }
+
+    /**
+     * @return boundary from the bottom to the top of the view port, as the tracker returns them.
+     */
+    private static Line boundary(double bottom, double top) {
+        return new Line(new Point(bottom, HEIGHT), new Point(top, 0));
+    }
+
+    private static Lane lane(double leftBottom, double leftTop, double rightBottom, double rightTop) {
+        return lane(Optional.of(boundary(leftBottom, leftTop)), Optional.of(boundary(rightBottom, rightTop)));
+    }
+
+    private static Lane lane(Optional<Line> left, Optional<Line> right) {
+        return new Lane(left, right);
+    }
+}
@@ -0,0 +1,106 @@
+package nl.vaneijndhoven.opencv.linedetection;
+
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.geometry.Point;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineBufferTest {
+
+    private static final double DELTA = 1e-5;
+
+    @Test
+    public void angleLengthAndBottomMostPointMatchLine() {
+        LineBuffer lines = new LineBuffer();
+        List<Line> expected = new ArrayList<>();
+        expected.add(new Line(new Point(10, 100), new Point(60, 20)));
+        expected.add(new Line(new Point(60, 20), new Point(10, 100)));
+        expected.add(new Line(new Point(0, 50), new Point(80, 50)));
+        expected.add(new Line(new Point(5, 0), new Point(5, 40)));
+        expected.forEach(lines::add);
+
+        assertEquals(expected.size(), lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = expected.get(i);
+            assertEquals(line, lines.line(i));
+            assertEquals(line.angleRad(), lines.angle(i), DELTA);
+            assertEquals(line.length(), lines.length(i), DELTA);
+            assertEquals(line.bottomMost().getX(), lines.bottomX(i), DELTA);
+            assertEquals(line.bottomMost().getY(), lines.bottomY(i), DELTA);
+        }
+        assertEquals(expected, new ArrayList<>(lines.toLines()));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        LineBuffer lines = new LineBuffer();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(i, 0, i, 10 + i);
+        }
+
+        assertEquals(1000, lines.size());
+        assertEquals(999, lines.x1(999));
+        assertEquals(1009, lines.y2(999));
+        assertEquals(1009, lines.length(999), DELTA);
+    }
+
+    @Test
+    public void addAllAppendsAfterExistingLines() {
+        LineBuffer left = new LineBuffer();
+        left.add(0, 0, 10, 10);
+        LineBuffer right = new LineBuffer();
+        right.add(20, 20, 30, 0);
+        right.add(40, 0, 50, 50);
+
+        left.addAll(right);
+
+        assertEquals(3, left.size());
+        assertEquals(new Line(new Point(0, 0), new Point(10, 10)), left.line(0));
+        assertEquals(right.line(0), left.line(1));
+        assertEquals(right.angle(1), left.angle(2), DELTA);
+        assertEquals(right.length(1), left.length(2), DELTA);
+    }
+
+    @Test
+    public void translateMovesCoordinatesOnly() {
+        LineBuffer lines = new LineBuffer();
+        lines.add(0, 0, 30, 40);
+
+        lines.translate(100, 200);
+
+        assertEquals(new Line(new Point(100, 200), new Point(130, 240)), lines.line(0));
+        assertEquals(50, lines.length(0), DELTA);
+        assertEquals(Math.atan2(40, 30), lines.angle(0), DELTA);
+    }
+
+    @Test
+    public void scaleMultipliesCoordinatesAndLength() {
+        LineBuffer lines = new LineBuffer();
+        lines.add(1, 2, 4, 6);
+
+        lines.scale(2);
+
+        assertEquals(new Line(new Point(2, 4), new Point(8, 12)), lines.line(0));
+        assertEquals(10, lines.length(0), DELTA);
+        assertEquals(Math.atan2(4, 3), lines.angle(0), DELTA);
+    }
+
+    @Test
+    public void clearKeepsBufferReusable() {
+        LineBuffer lines = new LineBuffer();
+        lines.add(0, 0, 1, 1);
+        lines.add(0, 0, 2, 2);
+
+        lines.clear();
+        lines.add(5, 5, 5, 9);
+
+        assertEquals(1, lines.size());
+        assertEquals(new Line(new Point(5, 5), new Point(5, 9)), lines.line(0));
+        // nothing native was allocated for lines added from Java
+        lines.release();
+    }
+}
@@ -0,0 +1,183 @@
+package nl.vaneijndhoven.opencv.linedetection;
+
+import nl.vaneijndhoven.geometry.Line;
+import nl.vaneijndhoven.geometry.Point;
+import nl.vaneijndhoven.objects.lane.LaneLeftBoundary;
+import nl.vaneijndhoven.objects.lane.LaneRightBoundary;
+import nl.vaneijndhoven.objects.stoppingzone.ZoneEndBoundary;
+import nl.vaneijndhoven.objects.stoppingzone.ZoneStartBoundary;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The classifier must pick the same lines as the boundary classes it replaces on the detection path. Those keep the
+ * candidates in a set: the lines are distinct, and of lines that tie on the sort keys either one may be picked, so
+ * only their bottom-most points are compared.
+ */
+public class LineClassifierTest {
+
+    private static final int FRAMES = 200;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void classifiesBoundaryCandidates() {
+        LineBuffer lines = new LineBuffer();
+        lines.add(10, 100, 60, 20);   // left, bottom at y 100
+        lines.add(20, 90, 70, 10);    // left, bottom at y 90: nearest
+        lines.add(110, 20, 160, 95);  // right, bottom at y 95: nearest
+        lines.add(100, 20, 150, 100); // right
+        lines.add(0, 150, 200, 152);  // zone, bottom at y 152: zone start
+        lines.add(0, 40, 200, 40);    // zone
+        lines.add(50, 50, 50, 120);   // vertical, no class
+
+        LineClassifier classifier = new LineClassifier().classify(lines);
+
+        assertEquals(Optional.of(lines.line(1)), classifier.left());
+        assertEquals(Optional.of(lines.line(2)), classifier.right());
+        assertEquals(Optional.of(lines.line(4)), classifier.zoneStart());
+        assertEquals(Optional.of(new Line(new Point(0, 95), new Point(200, 96))), classifier.zoneEnd());
+    }
+
+    @Test
+    public void matchesBoundaries() {
+        Random random = new Random(42);
+        LineClassifier classifier = new LineClassifier();
+        LineBuffer lines = new LineBuffer();
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            fill(lines, random, random.nextInt(40));
+            classifier.classify(lines);
+
+            Collection<Line> all = lines.toLines();
+            assertSameBottom(new LaneLeftBoundary().boundary(all), classifier.left());
+            assertSameBottom(new LaneRightBoundary().boundary(all), classifier.right());
+            assertSameBottomY(new ZoneStartBoundary().boundary(all), classifier.zoneStart());
+            assertSameLine(new ZoneEndBoundary().boundary(all), classifier.zoneEnd());
+        }
+    }
+
+    @Test
+    public void splitFieldsOnlyTakeLaneBoundariesFromTheirOwnField() {
+        Random random = new Random(7);
+        LineClassifier classifier = new LineClassifier();
+        LineBuffer leftField = new LineBuffer();
+        LineBuffer rightField = new LineBuffer();
+        LineBuffer lines = new LineBuffer();
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            fill(leftField, random, random.nextInt(20));
+            fill(rightField, random, random.nextInt(20));
+            lines.clear();
+            lines.addAll(leftField);
+            lines.addAll(rightField);
+
+            classifier.classify(lines, leftField.size());
+
+            assertSameBottom(new LaneLeftBoundary().boundary(leftField.toLines()), classifier.left());
+            assertSameBottom(new LaneRightBoundary().boundary(rightField.toLines()), classifier.right());
+            assertSameBottomY(new ZoneStartBoundary().boundary(lines.toLines()), classifier.zoneStart());
+            assertSameLine(new ZoneEndBoundary().boundary(lines.toLines()), classifier.zoneEnd());
+        }
+    }
+
+    @Test
+    public void ranksTopCandidatesInOrder() {
+        int k = 3;
+        Random random = new Random(3);
+        LineClassifier classifier = new LineClassifier(k);
+        LineBuffer lines = new LineBuffer();
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            fill(lines, random, random.nextInt(40));
+            classifier.classify(lines);
+
+            Comparator<Line> bottomY = Comparator.comparingDouble(line -> line.bottomMost().getY());
+            List<Line> left = sorted(new LaneLeftBoundary().candidates(lines.toLines()),
+                    bottomY.thenComparingDouble(line -> line.bottomMost().getX()));
+            List<Line> right = sorted(new LaneRightBoundary().candidates(lines.toLines()),
+                    bottomY.thenComparingDouble(line -> -line.bottomMost().getX()));
+
+            for (int rank = 0; rank < k; rank++) {
+                assertSameBottom(rank < left.size() ? Optional.of(left.get(rank)) : Optional.empty(), classifier.left(rank));
+                assertSameBottom(rank < right.size() ? Optional.of(right.get(rank)) : Optional.empty(), classifier.right(rank));
+            }
+        }
+    }
+
+    @Test
+    public void reuseStartsFromScratch() {
+        LineClassifier classifier = new LineClassifier();
+        LineBuffer lines = new LineBuffer();
+        lines.add(10, 100, 60, 20);
+        classifier.classify(lines);
+        assertTrue(classifier.left().isPresent());
+
+        lines.clear();
+        lines.add(110, 20, 160, 95);
+        classifier.classify(lines);
+
+        assertFalse(classifier.left().isPresent());
+        assertEquals(Optional.of(lines.line(0)), classifier.right());
+    }
+
+    private static List<Line> sorted(Collection<Line> lines, Comparator<Line> order) {
+        return lines.stream().sorted(order).collect(Collectors.toList());
+    }
+
+    private static void assertSameBottom(Optional<Line> expected, Optional<Line> actual) {
+        assertEquals(expected.isPresent(), actual.isPresent());
+        if (expected.isPresent()) {
+            assertEquals(expected.get().bottomMost().getX(), actual.get().bottomMost().getX(), DELTA);
+            assertEquals(expected.get().bottomMost().getY(), actual.get().bottomMost().getY(), DELTA);
+        }
+    }
+
+    /**
+     * The zone start is the line with the largest bottom y, whatever its x.
+     */
+    private static void assertSameBottomY(Optional<Line> expected, Optional<Line> actual) {
+        assertEquals(expected.isPresent(), actual.isPresent());
+        if (expected.isPresent()) {
+            assertEquals(expected.get().bottomMost().getY(), actual.get().bottomMost().getY(), DELTA);
+        }
+    }
+
+    /**
+     * Averages are summed in a different order, compared within a small delta.
+     */
+    private static void assertSameLine(Optional<Line> expected, Optional<Line> actual) {
+        assertEquals(expected.isPresent(), actual.isPresent());
+        if (expected.isPresent()) {
+            assertEquals(expected.get().getPoint1().getX(), actual.get().getPoint1().getX(), DELTA);
+            assertEquals(expected.get().getPoint1().getY(), actual.get().getPoint1().getY(), DELTA);
+            assertEquals(expected.get().getPoint2().getX(), actual.get().getPoint2().getX(), DELTA);
+            assertEquals(expected.get().getPoint2().getY(), actual.get().getPoint2().getY(), DELTA);
+        }
+    }
+
+    /**
+     * Distinct random lines on a coarse grid, so bottom points tie and angles hit the edges of the ranges.
+     */
+    private static void fill(LineBuffer lines, Random random, int count) {
+        Set<Line> distinct = new HashSet<>();
+        while (distinct.size() < count) {
+            distinct.add(new Line(new Point(10 * random.nextInt(20), 10 * random.nextInt(20)),
+                    new Point(10 * random.nextInt(20), 10 * random.nextInt(20))));
+        }
+
+        lines.clear();
+        distinct.forEach(lines::add);
+    }
+}
@@ -0,0 +1,58 @@
+package nl.vaneijndhoven.opencv.tools;
+
+import nl.vaneijndhoven.opencv.tools.StageTimings.Stage;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StageTimingsTest {
+
+    @Test
+    public void lapRecordsTheStageAndReturnsTheStartOfTheNext() {
+        StageTimings timings = new StageTimings();
+        long start = timings.start();
+        long next = timings.lap(Stage.CANNY, start);
+
+        assertTrue(next >= start);
+        assertEquals(1, timings.get(Stage.CANNY).getCount());
+        assertEquals(0, timings.get(Stage.HOUGH).getCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snapshotOnlyHoldsStagesThatRan() {
+        StageTimings timings = new StageTimings();
+        long t = timings.start();
+        t = timings.lap(Stage.ROI, t);
+        timings.lap(Stage.CANNY, t);
+
+        Map<String, Object> stages = (Map<String, Object>) timings.snapshot().get("stages");
+        assertEquals(2, stages.size());
+        assertEquals(1L, ((Map<String, Object>) stages.get("canny")).get("count"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rollStartsANewWindow() {
+        StageTimings timings = new StageTimings();
+        timings.lap(Stage.HOUGH, timings.start());
+
+        Map<String, Object> window = timings.roll();
+        assertEquals(1, ((Map<String, Object>) window.get("stages")).size());
+        assertTrue((long) window.get("windowEnd") >= (long) window.get("windowStart"));
+
+        Map<String, Object> next = timings.snapshot();
+        assertTrue(((Map<String, Object>) next.get("stages")).isEmpty());
+        assertEquals(window.get("windowEnd"), next.get("windowStart"));
+    }
+
+    @Test
+    public void noneRecordsNothing() {
+        StageTimings.NONE.lap(Stage.CANNY, StageTimings.NONE.start());
+
+        assertEquals(0, StageTimings.NONE.get(Stage.CANNY).getCount());
+    }
+}
@@ -6,6 +6,7 @@ public enum Events {
     CANNYCONFIG,
     HOUGHLINESCONFIG,
     LANEDETECTION,
-    STARTLIGHTDETECTION
+    STARTLIGHTDETECTION,
+    PIPELINETIMING
 
 }
@@ -0,0 +1,126 @@
+package nl.vaneijndhoven.dukes.hazardcounty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in microseconds (eight buckets per power of two, so
+ * percentiles are accurate to about 12%). Negative durations, caused by clock differences between the laptop and
+ * the car, are counted separately and recorded as zero.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong negative = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        long micros = unit.toMicros(duration);
+        if (micros < 0) {
+            negative.incrementAndGet();
+            micros = 0;
+        }
+
+        buckets.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getNegative() {
+        return negative.get();
+    }
+
+    /**
+     * @return mean in milliseconds.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? total.get() / 1000d / n : 0;
+    }
+
+    /**
+     * @return max in milliseconds.
+     */
+    public double getMax() {
+        return max.get() / 1000d;
+    }
+
+    /**
+     * @param percentile 0 - 100
+     * @return upper bound of the bucket holding the given percentile, in milliseconds.
+     */
+    public double getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBound(i), max.get()) / 1000d;
+            }
+        }
+
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+        negative.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s n=%d, mean=%.1fms, p50=%.1fms, p90=%.1fms, p99=%.1fms, max=%.1fms%s",
+                name, getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax(),
+                negative.get() > 0 ? ", negative=" + negative.get() : "");
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+}
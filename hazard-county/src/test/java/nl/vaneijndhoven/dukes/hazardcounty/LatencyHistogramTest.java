@@ -0,0 +1,101 @@
+package nl.vaneijndhoven.dukes.hazardcounty;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean(), DELTA);
+        assertEquals(0, histogram.getPercentile(99), DELTA);
+        assertEquals(0, histogram.getMax(), DELTA);
+    }
+
+    @Test
+    public void meanAndMaxAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram("exact");
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), DELTA);
+        assertEquals(100, histogram.getMax(), DELTA);
+    }
+
+    @Test
+    public void percentilesAreUpperBoundsWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram("percentiles");
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis, TimeUnit.MILLISECONDS);
+        }
+
+        // eight buckets per power of two: the upper bound is at most 1/8 above the true value
+        assertBetween(50, 50 * 1.125, histogram.getPercentile(50));
+        assertBetween(90, 90 * 1.125, histogram.getPercentile(90));
+        assertBetween(99, 100, histogram.getPercentile(99));
+        assertEquals(100, histogram.getPercentile(100), DELTA);
+    }
+
+    @Test
+    public void percentileNeverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram("single");
+        histogram.record(1234, TimeUnit.MICROSECONDS);
+
+        assertEquals(1.234, histogram.getPercentile(50), DELTA);
+        assertEquals(1.234, histogram.getPercentile(99), DELTA);
+    }
+
+    @Test
+    public void smallValuesHaveExactBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram("small");
+        for (int micros = 0; micros < 8; micros++) {
+            histogram.record(micros, TimeUnit.MICROSECONDS);
+        }
+
+        assertEquals(0.004, histogram.getPercentile(50), DELTA);
+        assertEquals(0.007, histogram.getPercentile(100), DELTA);
+    }
+
+    @Test
+    public void negativeDurationsAreCountedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("negative");
+        histogram.record(-5, TimeUnit.MILLISECONDS);
+        histogram.record(10, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, histogram.getNegative());
+        assertEquals(5, histogram.getMean(), DELTA);
+        assertTrue(histogram.toString().contains("negative=1"));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram("reset");
+        histogram.record(-1, TimeUnit.MILLISECONDS);
+        histogram.record(10, TimeUnit.MILLISECONDS);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getNegative());
+        assertEquals(0, histogram.getMax(), DELTA);
+        assertEquals(0, histogram.getPercentile(50), DELTA);
+
+        histogram.record(3, TimeUnit.MILLISECONDS);
+        assertEquals(3, histogram.getPercentile(50), DELTA);
+    }
+
+    private static void assertBetween(double min, double max, double actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
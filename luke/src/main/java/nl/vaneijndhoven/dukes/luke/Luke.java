@@ -18,9 +18,11 @@ public class Luke extends AbstractVerticle {
     private static final Logger LOG = LoggerFactory.getLogger(Luke.class);
     public static final String START_DRAG_NAVIGATION = "START_DRAG_NAVIGATION";
     public static final String STOP_NAVIGATION = "STOP_NAVIGATION";
+    private static final long LATENCY_LOG_INTERVAL = 10000;
     private Subscription laneDetection;
     private Subscription stoppingZoneDetection;
     private Subscription startLightDetection;
+    private long latencyLogger = -1;
 
     @Override
     public void start() throws Exception {
@@ -45,6 +47,11 @@ public class Luke extends AbstractVerticle {
             stoppingZoneDetection.unsubscribe();
         }
 
+        if (latencyLogger != -1) {
+            vertx.cancelTimer(latencyLogger);
+            latencyLogger = -1;
+        }
+
     }
 
     private void startDragNavigator() {
@@ -54,6 +61,8 @@ public class Luke extends AbstractVerticle {
         StraightLaneNavigator straighLaneNavigator = new StraightLaneNavigator();
         StoppingZoneDetector stoppingZoneDetector = new StoppingZoneDetector();
 
+        latencyLogger = vertx.setPeriodic(LATENCY_LOG_INTERVAL, id -> LOG.info("Latency " + straighLaneNavigator.getDetectToNavigate()));
+
         // failsafe ?
         laneDetection = vertx.eventBus().consumer(Events.LANEDETECTION.name()).toObservable()
 //                .doOnNext(evt -> LOG.trace("Received lane detection event (straight lane navigator): {}", evt.body()))
@@ -3,10 +3,12 @@ package nl.vaneijndhoven.dukes.luke.drag;
 import io.vertx.core.json.JsonObject;
 import io.vertx.rxjava.core.AbstractVerticle;
 import nl.vaneijndhoven.dukes.hazardcounty.Characters;
+import nl.vaneijndhoven.dukes.hazardcounty.LatencyHistogram;
 import rx.Observable;
 import rx.exceptions.Exceptions;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static rx.Observable.just;
 import static rx.exceptions.Exceptions.propagate;
@@ -27,6 +29,8 @@ public class StraightLaneNavigator {
 
     private boolean emergencyStopActivated = false;
 
+    private final LatencyHistogram detectToNavigate = new LatencyHistogram("detect->navigate");
+
     public StraightLaneNavigator() {
         initDefaults();
     }
@@ -37,6 +41,11 @@ public class StraightLaneNavigator {
     }
 
     public Observable<JsonObject> navigate(JsonObject laneDetectResult) {
+        JsonObject frame = laneDetectResult.getJsonObject("frame");
+        if (frame != null && frame.containsKey("detectTime")) {
+            detectToNavigate.record(System.currentTimeMillis() - frame.getLong("detectTime"), TimeUnit.MILLISECONDS);
+        }
+
         return processLane(laneDetectResult)
                 .onErrorResumeNext(throwable -> {
                     // Convert No Lines Detected situation into stop command.
@@ -47,7 +56,8 @@ public class StraightLaneNavigator {
                     } else {
                         return Observable.error(propagate(throwable));
                     }
-                });
+                })
+                .map(instruction -> frame != null ? instruction.put("frame", frame.copy().put("navigateTime", System.currentTimeMillis())) : instruction);
 
     }
 
@@ -129,6 +139,10 @@ public class StraightLaneNavigator {
         return Observable.empty();
     }
 
+    public LatencyHistogram getDetectToNavigate() {
+        return detectToNavigate;
+    }
+
     /// TODO rewrite to throw exception so calling class can act on specific error to send stop command.
     private void verifyAngleFound(Double angle, long currentTime) throws NoLinesDetected {
         if (angle == null) {
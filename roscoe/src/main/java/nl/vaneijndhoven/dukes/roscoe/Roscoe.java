@@ -3,7 +3,11 @@ package nl.vaneijndhoven.dukes.roscoe;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
-import nl.vaneijndhoven.daisy.Daisy;
+import io.vertx.core.json.JsonObject;
+import nl.vaneijndhoven.daisy.Frame;
+import nl.vaneijndhoven.daisy.FrameStore;
+import nl.vaneijndhoven.dukes.hazardcounty.Characters;
+import nl.vaneijndhoven.opencv.tools.StageTimings;
 import org.opencv.core.MatOfByte;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.slf4j.Logger;
@@ -14,37 +18,78 @@ public class Roscoe extends AbstractVerticle {
 
     private static final Logger LOG = LoggerFactory.getLogger(Roscoe.class);
 
+    private static final long TIMING_WINDOW = 5000;
+
+    private FrameStore frameStore;
+    private final StageTimings timings = new StageTimings();
+
     @Override
     public void start() throws Exception {
         LOG.info("Starting Roscoe (lane detection debug image web server");
-        vertx.createHttpServer().requestHandler(this::sendImage).listen(8081);
+        frameStore = FrameStore.shared(vertx);
+        vertx.createHttpServer().requestHandler(this::handle).listen(8081);
+        vertx.setPeriodic(TIMING_WINDOW, id -> timings.roll());
+    }
+
+    private void handle(HttpServerRequest request) {
+        if ("timings".equals(request.getParam("type"))) {
+            sendTimings(request);
+        } else {
+            sendImage(request);
+        }
+    }
+
+    /**
+     * Stage timings of the lane detection pipeline as JSON, with the PNG encoding done here as the "encode" stage.
+     */
+    private void sendTimings(HttpServerRequest request) {
+        vertx.eventBus().<JsonObject>send(Characters.DAISY.getCallsign() + ":TIMINGS", null, reply -> {
+            JsonObject body = reply.succeeded() ? reply.result().body() : new JsonObject().put("error", reply.cause().getMessage());
+            body.put("encode", new JsonObject(StageTimings.toMap(timings.get(StageTimings.Stage.ENCODE))));
+
+            String json = body.encode();
+            request.response().putHeader("content-type", "application/json");
+            request.response().end(json);
+        });
     }
 
 
     private void sendImage(HttpServerRequest request) {
         String type = request.getParam("type");
-        byte[] bytes = new byte[]{};
+        String stream;
         if ("edges".equals(type)) {
-            bytes = Daisy.CANNY_IMG;
+            stream = FrameStore.EDGES;
         } else if ("birdseye".equals(type)) {
-            if (Daisy.BIRDS_EYE != null) {
-                MatOfByte matOfByte = new MatOfByte();
-                Imgcodecs.imencode(".png", Daisy.BIRDS_EYE, matOfByte);
-                bytes = matOfByte.toArray();
-            }
+            stream = FrameStore.BIRDS_EYE;
+        } else if ("camera".equals(type)) {
+            stream = FrameStore.CAMERA;
         } else {
-            if (Daisy.MAT != null) {
+            stream = FrameStore.LANE;
+        }
+
+        // the source whose frames were published last, unless the request names one
+        String source = request.getParam("source");
+        if (source == null) {
+            source = frameStore.lastSource();
+        }
+
+        byte[] bytes = new byte[]{};
+        long sequence = -1;
+        try (Frame frame = source != null ? frameStore.acquire(source, stream) : null) {
+            if (frame != null) {
+                long t = timings.start();
                 MatOfByte matOfByte = new MatOfByte();
-                Imgcodecs.imencode(".png", Daisy.MAT, matOfByte);
+                Imgcodecs.imencode(".png", frame.get(), matOfByte);
                 bytes = matOfByte.toArray();
+                matOfByte.release();
+                timings.lap(StageTimings.Stage.ENCODE, t);
+                sequence = frame.getSequence();
             }
         }
 
-        if (bytes == null) {
-            bytes = new byte[]{};
-        }
         request.response().putHeader("content-type", "image/png");
         request.response().putHeader("content-length", ""+bytes.length);
+        request.response().putHeader("x-frame-sequence", ""+sequence);
         request.response().write(Buffer.buffer().appendBytes(bytes));
 
     }